@@ -0,0 +1,459 @@
+package it.unipi.di.p2p;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A Class to hold aggregate statistics on the ran simulations.
+ *
+ * Per-node counters are plain arrays indexed by the nodes' position in the ring, and all the other statistics
+ * are kept as histograms and exact sums, so updates take constant time and allocate nothing; averages and
+ * standard deviations are only computed by {@link #toCSV()}.
+ */
+public class AggregateResults {
+    /**
+     * Number of nodes in the overlay.
+     */
+    private final int nodesNumber;
+    /**
+     * Number of bits to represent the identifiers.
+     */
+    private final int idSpaceBits;
+    /**
+     * The identifier space of the ring.
+     */
+    private final IdSpace idSpace;
+    /**
+     * Stores the number of queries that each node performs, indexed by the node's position in the ring.
+     *
+     * (A node performs a query if its {@code lookup} method is called.)
+     */
+    private final int[] queriesReceivedByEachNode;
+    /**
+     * Stores the number of occurrences of a certain distance between
+     * any node and its predecessor.
+     */
+    private final Map<BigInteger, Integer> distances = new HashMap<>();
+    /**
+     * Stores the number of occurrences of queries of a certain length, indexed by the length.
+     */
+    private long[] hopCounts = new long[32];
+    /**
+     * Stores the number of queries for which each node is endnode, indexed by the node's position in the ring.
+     */
+    private final int[] endnodes;
+    /**
+     * Number of distances between consecutive nodes added so far.
+     */
+    private long distanceCount = 0;
+    /**
+     * Sum of the distances between consecutive nodes, used while it fits into a long
+     * (i.e. for rings of up to 31 bits, since the distances of a ring sum up to 2^idSpaceBits).
+     */
+    private long distanceSum = 0;
+    /**
+     * Sum of the squared distances between consecutive nodes, used together with {@code distanceSum}.
+     */
+    private long distanceSquareSum = 0;
+    /**
+     * Sum of the distances between consecutive nodes, for larger rings.
+     */
+    private BigInteger bigDistanceSum = BigInteger.ZERO;
+    /**
+     * Sum of the squared distances between consecutive nodes, for larger rings.
+     */
+    private BigInteger bigDistanceSquareSum = BigInteger.ZERO;
+    /**
+     * Number of queries whose hops were added so far.
+     */
+    private long hopSamples = 0;
+    /**
+     * Sum of the number of hops of all the queries.
+     */
+    private long hopSum = 0;
+    /**
+     * The lengths of the shortest paths of the finger graph, or null if they were not computed.
+     */
+    private GraphMetrics.PathLengths pathLengths = null;
+    /**
+     * The clustering coefficients of the finger graph, or null if they were not computed.
+     */
+    private GraphMetrics.Clustering clustering = null;
+    /**
+     * The number of nodes with each in-degree in the finger graph, indexed by the in-degree, or null if it
+     * was not computed.
+     */
+    private long[] inDegrees = null;
+    /**
+     * For each node of the ring, the index of the physical node it belongs to, or null if each physical node
+     * has a single identifier.
+     */
+    private int[] physicalOf = null;
+    /**
+     * Number of physical nodes.
+     */
+    private int physicalNodes;
+    /**
+     * For each physical node, the fraction of the identifier space its virtual nodes are responsible for.
+     */
+    private double[] keyShares;
+
+    /**
+     * Constructor of the class.
+     *
+     * @param idSpace The identifier space of the ring.
+     * @param nodesNumber Number of nodes in the overlay.
+     */
+    public AggregateResults(IdSpace idSpace, int nodesNumber) {
+        this.idSpace = idSpace;
+        this.idSpaceBits = idSpace.getBits();
+        this.nodesNumber = nodesNumber;
+        this.queriesReceivedByEachNode = new int[nodesNumber];
+        this.endnodes = new int[nodesNumber];
+    }
+
+    /**
+     * Adds the distance between two nodes to the statistics.
+     *
+     * A zero distance can only be found in a ring with a single node, and it stands for the whole ring.
+     *
+     * @param dist The distance to add to the statistics.
+     */
+    public void addDistance(RingId dist) {
+        BigInteger d = dist.isZero() ? idSpace.getWrapPoint() : dist.toBigInteger();
+        update(distances, d);
+        distanceCount++;
+        if (idSpaceBits <= 31) {
+            long l = d.longValue();
+            distanceSum += l;
+            distanceSquareSum += l * l;
+        } else {
+            bigDistanceSum = bigDistanceSum.add(d);
+            bigDistanceSquareSum = bigDistanceSquareSum.add(d.multiply(d));
+        }
+    }
+
+    /**
+     * Sets the physical node each node of the ring belongs to, when physical nodes have more than one
+     * virtual node; the load of the virtual nodes is then also aggregated by physical node.
+     *
+     * @param physicalOf For each node of the ring, the index of its physical node.
+     * @param physicalNodes Number of physical nodes.
+     */
+    public void setPhysicalNodes(int[] physicalOf, int physicalNodes) {
+        this.physicalOf = physicalOf;
+        this.physicalNodes = physicalNodes;
+        this.keyShares = new double[physicalNodes];
+    }
+
+    /**
+     * Adds the arc a node is responsible for, i.e. the distance from its predecessor, to the share of the
+     * identifier space of its physical node (see {@link #setPhysicalNodes(int[], int)}).
+     *
+     * @param node The index of the node in the ring.
+     * @param dist The distance between the node and its predecessor.
+     */
+    public void addKeyShare(int node, RingId dist) {
+        keyShares[physicalOf[node]] += dist.isZero()
+                ? 1.0 : dist.toBigInteger().doubleValue() / idSpace.getWrapPoint().doubleValue();
+    }
+
+    /**
+     * Adds a query to the statistics: every node on its route performs it once more, as does its endnode,
+     * which is also counted as such.
+     *
+     * @param lr The result of the query.
+     */
+    public void addLookup(LookupResult lr) {
+        int hops = lr.getHops();
+        for (int h = 0; h < hops; h++) {
+            queriesReceivedByEachNode[lr.getHop(h)]++;
+        }
+        int endNode = lr.getOwner();
+        endnodes[endNode]++;
+        queriesReceivedByEachNode[endNode]++;
+        addHopCounts(hops);
+    }
+
+    /**
+     * Adds the number of hops of a query to the statistics.
+     *
+     * @param hops Number of hops of the current query
+     */
+    public void addHopCounts(int hops) {
+        if (hops >= hopCounts.length) {
+            hopCounts = Arrays.copyOf(hopCounts, Math.max(hops + 1, hopCounts.length * 2));
+        }
+        hopCounts[hops]++;
+        hopSamples++;
+        hopSum += hops;
+    }
+
+    /**
+     * Adds the query statistics collected by another object to these ones.
+     *
+     * @param other The statistics to be merged into these ones.
+     */
+    public void merge(AggregateResults other) {
+        for (int i = 0; i < nodesNumber; i++) {
+            queriesReceivedByEachNode[i] += other.queriesReceivedByEachNode[i];
+            endnodes[i] += other.endnodes[i];
+        }
+        if (other.hopCounts.length > hopCounts.length) {
+            hopCounts = Arrays.copyOf(hopCounts, other.hopCounts.length);
+        }
+        for (int h = 0; h < other.hopCounts.length; h++) {
+            hopCounts[h] += other.hopCounts[h];
+        }
+        hopSamples += other.hopSamples;
+        hopSum += other.hopSum;
+    }
+
+    /**
+     * Sets the lengths of the shortest paths of the finger graph, to be added to the statistics.
+     *
+     * @param pathLengths The lengths of the shortest paths.
+     */
+    public void setPathLengths(GraphMetrics.PathLengths pathLengths) {
+        this.pathLengths = pathLengths;
+    }
+
+    /**
+     * Sets the clustering coefficients of the finger graph, to be added to the statistics.
+     *
+     * @param clustering The clustering coefficients.
+     */
+    public void setClustering(GraphMetrics.Clustering clustering) {
+        this.clustering = clustering;
+    }
+
+    /**
+     * Sets the distribution of the in-degrees of the finger graph, to be added to the statistics.
+     *
+     * @param inDegrees The number of nodes with each in-degree, indexed by the in-degree.
+     */
+    public void setInDegrees(long[] inDegrees) {
+        this.inDegrees = inDegrees;
+    }
+
+    /**
+     * Computes the number of nodes that perform at least a certain number of queries, for each
+     * number from 1 to the highest number of queries performed by a node.
+     *
+     * @return an array whose element q holds the number of nodes that performed q queries or more
+     * (element 0 is unused).
+     */
+    private long[] nodesForEachQueryNumber() {
+        int max = 0;
+        for (int count: queriesReceivedByEachNode) {
+            max = Math.max(max, count);
+        }
+        long[] atLeast = new long[max + 1];
+        for (int count: queriesReceivedByEachNode) {
+            if (count > 0) {
+                atLeast[count]++;
+            }
+        }
+        for (int q = max - 1; q > 0; q--) {
+            atLeast[q] += atLeast[q + 1];
+        }
+        return atLeast;
+    }
+
+    /**
+     * Outputs the current statistics in CSV format. Averages and standard deviations are only computed here.
+     *
+     * The average distance is rounded to an integer, and the standard deviation of the distance is computed
+     * from the variance around the rounded average, rounded to an integer as well.
+     *
+     * @return A {@link String} containing the statistics collected insofar, in CSV format.
+     */
+    public String toCSV() {
+        double avgDist = 0.0, stdDevDist = 0.0;
+        if (distanceCount > 0) {
+            BigInteger sum = (idSpaceBits <= 31) ? BigInteger.valueOf(distanceSum) : bigDistanceSum;
+            BigInteger squareSum = (idSpaceBits <= 31) ? BigInteger.valueOf(distanceSquareSum) : bigDistanceSquareSum;
+            BigDecimal size = new BigDecimal(distanceCount);
+            BigDecimal avgDistBD = new BigDecimal(sum).divide(size, RoundingMode.HALF_DOWN);
+            BigInteger mean = avgDistBD.toBigIntegerExact();
+            // sum((d - mean)^2) = sum(d^2) - 2 * mean * sum(d) + count * mean^2
+            BigInteger stdevsum = squareSum
+                    .subtract(mean.multiply(sum).shiftLeft(1))
+                    .add(mean.multiply(mean).multiply(BigInteger.valueOf(distanceCount)));
+            avgDist = avgDistBD.doubleValue();
+            stdDevDist = new BigDecimal(stdevsum).divide(size, RoundingMode.HALF_DOWN)
+                    .sqrt(MathContext.DECIMAL32).doubleValue();
+        }
+        double avgHops = ((double) hopSum) / hopSamples;
+        // Summed term by term over the histogram: deriving it from the sums of h and h^2 changes the last digits
+        double hopSquares = 0.0, hopCount = 0.0;
+        for (int hops = 0; hops < hopCounts.length; hops++) {
+            if (hopCounts[hops] > 0) {
+                hopSquares += (hops - avgHops) * (hops - avgHops) * hopCounts[hops];
+                hopCount += hopCounts[hops];
+            }
+        }
+        double stdDevHops = Math.sqrt(hopSquares / hopCount);
+
+        long[] nodesForEachQueryNumber = nodesForEachQueryNumber();
+        long queries = 0, weightedQueries = 0;
+        for (int q = 1; q < nodesForEachQueryNumber.length; q++) {
+            queries += nodesForEachQueryNumber[q];
+            weightedQueries += q * nodesForEachQueryNumber[q];
+        }
+        int endNodeCount = 0;
+        for (int count: endnodes) {
+            if (count > 0) {
+                endNodeCount++;
+            }
+        }
+
+        StringBuilder sb = new StringBuilder();
+
+        sb
+                .append("avg_queries_per_node,").append(((double) weightedQueries) / queries).append('\n')
+                .append("end_nodes,").append(endNodeCount).append('\n')
+                .append("average_distance,").append(avgDist).append('\n')
+                .append("std_dev_distance,").append(stdDevDist).append('\n')
+                .append("avg_hops_per_query,").append(avgHops).append('\n')
+                .append("std_dev_hops_per_query,").append(stdDevHops).append('\n')
+                .append('\n').append("distance,count").append('\n');
+
+        for (BigInteger distance : distances.keySet()) {
+            sb.append(distance).append(',').append(distances.get(distance)).append('\n');
+        }
+
+        sb.append('\n').append("query_number,nodes").append('\n');
+
+        for (int query = 1; query < nodesForEachQueryNumber.length; query++) {
+            sb.append(query).append(',').append(nodesForEachQueryNumber[query]).append('\n');
+        }
+
+        sb.append('\n').append("hops_per_query,times").append('\n');
+
+        for (int hops = 0; hops < hopCounts.length; hops++) {
+            if (hopCounts[hops] > 0) {
+                sb.append(hops).append(',').append(hopCounts[hops]).append('\n');
+            }
+        }
+
+        if (pathLengths != null) {
+            sb.append('\n').append("path_metric,value").append('\n')
+                    .append("path_sources,").append(pathLengths.getSources()).append('\n')
+                    .append("diameter,").append(pathLengths.getDiameter()).append('\n')
+                    .append("avg_shortest_path,").append(pathLengths.getAverage()).append('\n');
+        }
+
+        if (clustering != null) {
+            sb.append('\n').append("avg_clustering,").append(clustering.getAverage()).append('\n')
+                    .append('\n').append("clustering,nodes").append('\n');
+            long[] histogram = clustering.getHistogram();
+            for (int bin = 0; bin < histogram.length; bin++) {
+                sb.append(String.format(Locale.ROOT, "%.2f", (double) bin / histogram.length))
+                        .append(',').append(histogram[bin]).append('\n');
+            }
+        }
+
+        if (inDegrees != null) {
+            sb.append('\n').append("in_degree,nodes").append('\n');
+            for (int degree = 0; degree < inDegrees.length; degree++) {
+                if (inDegrees[degree] > 0) {
+                    sb.append(degree).append(',').append(inDegrees[degree]).append('\n');
+                }
+            }
+        }
+
+        if (physicalOf != null) {
+            appendPhysicalLoad(sb);
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Appends the load of the physical nodes to the statistics: the share of the identifier space, the
+     * queries and the queries as endnode of each physical node, summed over its virtual nodes, followed by
+     * the number of physical nodes that are endnode for each number of queries.
+     *
+     * @param sb The builder of the statistics.
+     */
+    private void appendPhysicalLoad(StringBuilder sb) {
+        double[] queries = new double[physicalNodes], ends = new double[physicalNodes];
+        for (int i = 0; i < nodesNumber; i++) {
+            queries[physicalOf[i]] += queriesReceivedByEachNode[i];
+            ends[physicalOf[i]] += endnodes[i];
+        }
+        int endNodeCount = 0, maxEnds = 0;
+        for (double count: ends) {
+            if (count > 0) {
+                endNodeCount++;
+            }
+            maxEnds = Math.max(maxEnds, (int) count);
+        }
+
+        sb.append('\n').append("physical_metric,value").append('\n')
+                .append("physical_nodes,").append(physicalNodes).append('\n')
+                .append("virtual_nodes_per_physical_node,").append(nodesNumber / physicalNodes).append('\n')
+                .append("physical_end_nodes,").append(endNodeCount).append('\n');
+        appendSummary(sb, "key_share", keyShares);
+        appendSummary(sb, "queries_per_physical_node", queries);
+        appendSummary(sb, "end_queries_per_physical_node", ends);
+
+        long[] histogram = new long[maxEnds + 1];
+        for (double count: ends) {
+            histogram[(int) count]++;
+        }
+        sb.append('\n').append("end_queries,physical_nodes").append('\n');
+        for (int count = 0; count < histogram.length; count++) {
+            if (histogram[count] > 0) {
+                sb.append(count).append(',').append(histogram[count]).append('\n');
+            }
+        }
+    }
+
+    /**
+     * Appends the average, the standard deviation and the maximum of some values to the statistics.
+     *
+     * @param sb The builder of the statistics.
+     * @param name The name of the values.
+     * @param values The values.
+     */
+    private static void appendSummary(StringBuilder sb, String name, double[] values) {
+        double sum = 0, max = 0;
+        for (double v: values) {
+            sum += v;
+            max = Math.max(max, v);
+        }
+        double avg = sum / values.length, squares = 0;
+        for (double v: values) {
+            squares += (v - avg) * (v - avg);
+        }
+        sb.append("avg_").append(name).append(',').append(avg).append('\n')
+                .append("std_dev_").append(name).append(',').append(Math.sqrt(squares / values.length)).append('\n')
+                .append("max_").append(name).append(',').append(max).append('\n');
+    }
+
+    /**
+     * Updates one statistics with the received data.
+     *
+     * @param m the Map containing the data for the statistics.
+     * @param key The newly-received data.
+     * @param <T> The type of the data.
+     */
+    private <T> void update(Map<T, Integer> m, T key) {
+        if (m.containsKey(key)) {
+            int count = m.get(key);
+            count++;
+            m.put(key, count);
+        } else {
+            m.put(key, 1);
+        }
+    }
+
+}
@@ -0,0 +1,117 @@
+package it.unipi.di.p2p;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Hashes batches of inputs into a flat array of identifiers.
+ *
+ * Each input is written by an {@link Input} into a reusable buffer and hashed from there, and its
+ * identifier is stored at the input's position in the destination array. Large batches are split into
+ * fixed-size chunks spread over a {@link ForkJoinPool}, each chunk with its own copy of the hasher; since
+ * every identifier only depends on its input, the outcome does not depend on the number of threads.
+ */
+public final class BatchHasher {
+
+    /**
+     * Number of inputs hashed by each task.
+     */
+    private static final int CHUNK = 1024;
+
+    /**
+     * The hasher used for sequential batches, and copied for parallel ones.
+     */
+    private final IdHasher hasher;
+    /**
+     * The maximum length of an input, in bytes.
+     */
+    private final int maxInputLength;
+
+    /**
+     * Writes the inputs of a batch.
+     */
+    @FunctionalInterface
+    public interface Input {
+        /**
+         * Writes an input into a buffer.
+         *
+         * @param item The index of the input.
+         * @param buffer The buffer, at least as long as the maximum length of an input.
+         * @return the length of the input.
+         */
+        int write(int item, byte[] buffer);
+    }
+
+    /**
+     * Constructor of the class.
+     *
+     * @param hasher The hasher, which is owned by the new object.
+     * @param maxInputLength The maximum length of an input, in bytes.
+     */
+    public BatchHasher(IdHasher hasher, int maxInputLength) {
+        this.hasher = hasher;
+        this.maxInputLength = maxInputLength;
+    }
+
+    /**
+     * Hashes a range of inputs; the identifier of input i is stored at offset {@code i * limbs} of dst.
+     *
+     * @param from The index of the first input (inclusive).
+     * @param to The index of the last input (exclusive).
+     * @param input The object writing the inputs.
+     * @param dst The array where the identifiers are stored.
+     * @param pool The pool used to hash the inputs, or null to hash them in the current thread.
+     */
+    public void hash(int from, int to, Input input, long[] dst, ForkJoinPool pool) {
+        if (pool == null || to - from <= CHUNK) {
+            hashChunk(hasher, from, to, input, dst);
+        } else {
+            int chunks = (to - from + CHUNK - 1) / CHUNK;
+            Coordinator.runTasks(pool, chunks, c -> hashChunk(hasher.copy(), from + c * CHUNK,
+                    Math.min(to, from + (c + 1) * CHUNK), input, dst));
+        }
+    }
+
+    /**
+     * Hashes a batch of fixed-length inputs stored one after the other, directly from their array; the
+     * identifier of input i is stored at offset {@code i * limbs} of dst.
+     *
+     * @param inputs The inputs, one after the other.
+     * @param length The length of each input.
+     * @param count The number of inputs.
+     * @param dst The array where the identifiers are stored.
+     * @param pool The pool used to hash the inputs, or null to hash them in the current thread.
+     */
+    public void hash(byte[] inputs, int length, int count, long[] dst, ForkJoinPool pool) {
+        int limbs = hasher.getSpace().getLimbs();
+        if (pool == null || count <= CHUNK) {
+            for (int i = 0; i < count; i++) {
+                hasher.hash(inputs, i * length, length, dst, i * limbs);
+            }
+        } else {
+            int chunks = (count + CHUNK - 1) / CHUNK;
+            Coordinator.runTasks(pool, chunks, c -> {
+                IdHasher h = hasher.copy();
+                for (int i = c * CHUNK; i < Math.min(count, (c + 1) * CHUNK); i++) {
+                    h.hash(inputs, i * length, length, dst, i * limbs);
+                }
+            });
+        }
+    }
+
+    /**
+     * Hashes a range of inputs with a given hasher.
+     *
+     * @param h The hasher.
+     * @param from The index of the first input (inclusive).
+     * @param to The index of the last input (exclusive).
+     * @param input The object writing the inputs.
+     * @param dst The array where the identifiers are stored.
+     */
+    private void hashChunk(IdHasher h, int from, int to, Input input, long[] dst) {
+        byte[] buffer = new byte[maxInputLength];
+        int limbs = h.getSpace().getLimbs();
+        for (int i = from; i < to; i++) {
+            h.hash(buffer, 0, input.write(i, buffer), dst, i * limbs);
+        }
+    }
+}
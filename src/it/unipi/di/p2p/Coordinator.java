@@ -1,14 +1,15 @@
 package it.unipi.di.p2p;
 
-import java.math.BigDecimal;
-import java.math.BigInteger;
-import java.math.MathContext;
-import java.math.RoundingMode;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
-import java.security.MessageDigest;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 
 /**
@@ -18,25 +19,120 @@ import java.util.*;
 public class Coordinator {
 
     /**
-     * Number of nodes in the overlay.
+     * Number of nodes in the overlay's ring, i.e. the number of physical nodes times the number of virtual
+     * nodes of each one.
      */
     private int nodesNumber;
+    /**
+     * Number of physical nodes.
+     */
+    private final int physicalNodes;
+    /**
+     * Number of virtual nodes, i.e. of identifiers, of each physical node.
+     */
+    private int virtualNodes = 1;
+    /**
+     * For each node of the ring, the index of the physical node it belongs to, or null if each physical node
+     * has a single identifier.
+     */
+    private int[] physicalOf = null;
     /**
      * Number of bits to represent the identifiers.
      */
     private int idSpaceBits;
     /**
-     * Maximum number of nodes in the ring.
+     * The identifier space of the ring.
+     */
+    private IdSpace idSpace;
+    /**
+     * Number of candidate nodes, or of search keys, generated with the same random stream.
+     */
+    private static final int GENERATION_BLOCK = 4096;
+    /**
+     * Time between two progress reports, in milliseconds.
+     */
+    private static final long PROGRESS_INTERVAL = 2000;
+    /**
+     * Index of the random stream used to build the overlay.
+     */
+    private static final int BUILD_PHASE = 0;
+    /**
+     * Index of the random stream used to simulate the queries.
+     */
+    private static final int SIMULATION_PHASE = 1;
+    /**
+     * Index of the random stream used to sample the sources of the shortest path analysis.
+     */
+    private static final int ANALYSIS_PHASE = 2;
+    /**
+     * Index of the random stream of the message-level simulation.
      */
-    private BigInteger idSpace;
+    private static final int MESSAGE_PHASE = 3;
+    /**
+     * Index of the random stream the addresses of the joining nodes are drawn from.
+     */
+    private static final int CHURN_PHASE = 4;
+    /**
+     * Index of the random stream of the simulation of the maintenance protocol.
+     */
+    private static final int MAINTENANCE_PHASE = 5;
+    /**
+     * Index of the random stream of the failure injection.
+     */
+    private static final int FAILURE_PHASE = 6;
     /**
      * Object to aggregate the simulations' results.
      */
-    private AggregateResults ar = new AggregateResults();
+    private AggregateResults ar;
+    /**
+     * Seed for the generation of the overlay and of the queries.
+     */
+    private long seed;
+    /**
+     * The algorithm used to hash node addresses and search keys into identifiers.
+     */
+    private HashAlgorithm hashAlgorithm = HashAlgorithm.SHA512;
+    /**
+     * Number of threads used to build the overlay and to simulate the queries.
+     */
+    private int parallelism = 1;
+    /**
+     * Number of source nodes of the shortest path analysis added to the routing statistics (0 to skip it).
+     */
+    private int pathSources = 0;
+    /**
+     * Whether the clustering coefficients and the in-degrees of the finger graph are added to the routing
+     * statistics.
+     */
+    private boolean degreeAnalysis = false;
+    /**
+     * The nodes' identifiers, sorted into a ring.
+     */
+    private SortedRing ring;
     /**
-     * Map to store the nodes, indexed by their ID
+     * Array to store the nodes, in the same order of the ring (i.e. by ascending ID)
      */
-    private SortedMap<BigInteger, Node> nodes;
+    private Node[] nodes;
+    /**
+     * The finger tables of the nodes, referring to them by their index in the ring.
+     */
+    private FingerStore fingerStore;
+    /**
+     * The engine that routes the queries on the overlay.
+     */
+    private LookupEngine lookupEngine;
+    /**
+     * The random stream the addresses of the joining nodes are drawn from, created by the first join.
+     */
+    private SplittableRandom churnRandom;
+    /**
+     * The hasher of the addresses of the joining nodes, created by the first join.
+     */
+    private IdHasher churnHasher;
+    /**
+     * Whether nodes joined or left the overlay since the distances between consecutive nodes were collected.
+     */
+    private boolean distancesStale = false;
 
     /**
      * Constructor of the class.
@@ -44,10 +140,115 @@ public class Coordinator {
      * @param idSpaceBits Number of bits to represent identifiers.
      */
     public Coordinator(int nodesNumber, int idSpaceBits) {
+        this(nodesNumber, idSpaceBits, new SplittableRandom().nextLong());
+    }
+
+    /**
+     * Constructor of the class.
+     * @param nodesNumber Number of nodes to place in the overlay.
+     * @param idSpaceBits Number of bits to represent identifiers.
+     * @param seed Seed for the generation of the overlay and of the queries.
+     */
+    public Coordinator(int nodesNumber, int idSpaceBits, long seed) {
         this.nodesNumber = nodesNumber;
+        this.physicalNodes = nodesNumber;
         this.idSpaceBits = idSpaceBits;
-        idSpace = BigInteger.TWO.pow(idSpaceBits);
-        nodes = new TreeMap<>();
+        this.seed = seed;
+        idSpace = new IdSpace(idSpaceBits);
+        ar = new AggregateResults(idSpace, nodesNumber);
+    }
+
+    /**
+     * Gets the seed for the generation of the overlay and of the queries.
+     * @return the seed of this Coordinator.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Sets the algorithm used to hash node addresses and search keys into identifiers (by default, SHA-512).
+     * @param hashAlgorithm The hash algorithm.
+     * @throws IllegalArgumentException If the identifiers are larger than the algorithm's digest.
+     */
+    public void setHashAlgorithm(HashAlgorithm hashAlgorithm) {
+        if (idSpaceBits > hashAlgorithm.getMaxBits()) {
+            throw new IllegalArgumentException("The digest of " + hashAlgorithm + " is shorter than "
+                    + idSpaceBits + " bits");
+        }
+        this.hashAlgorithm = hashAlgorithm;
+    }
+
+    /**
+     * Sets the number of threads used to build the overlay and to simulate the queries. With a parallelism
+     * of one (the default) everything runs sequentially.
+     * @param parallelism The number of threads used to build the overlay and to simulate the queries.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Sets the number of source nodes from which {@link #simulateRouting(int)} computes the lengths of the
+     * shortest paths of the finger graph, for its diameter and average shortest path length (see
+     * {@link #computePathLengths(int)}). By default the analysis is skipped.
+     *
+     * @param pathSources The number of sources (at least the number of nodes for an exact analysis), or 0 to
+     *                    skip the analysis.
+     */
+    public void setPathSources(int pathSources) {
+        if (pathSources < 0) {
+            throw new IllegalArgumentException("The number of sources cannot be negative");
+        }
+        this.pathSources = pathSources;
+    }
+
+    /**
+     * Sets whether {@link #simulateRouting(int)} adds the distribution of the local clustering coefficients
+     * and of the in-degrees of the finger graph (see {@link GraphMetrics}) to its statistics. By default they
+     * are not computed.
+     *
+     * @param degreeAnalysis Whether the clustering coefficients and the in-degrees are computed.
+     */
+    public void setDegreeAnalysis(boolean degreeAnalysis) {
+        this.degreeAnalysis = degreeAnalysis;
+    }
+
+    /**
+     * Sets the number of virtual nodes of each physical node, i.e. the number of identifiers it takes in the
+     * ring, to spread the keys more evenly among the physical nodes. Must be called before the overlay is
+     * built; the overlay's ring then holds the virtual nodes, and nodes cannot join or leave it.
+     *
+     * @param virtualNodes The number of virtual nodes of each physical node, at least one.
+     * @throws IllegalArgumentException If the number is not positive, or the ring would be too large.
+     * @throws IllegalStateException If the overlay has already been built.
+     */
+    public void setVirtualNodes(int virtualNodes) {
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("Invalid number of virtual nodes: " + virtualNodes);
+        }
+        if ((long) physicalNodes * virtualNodes * idSpace.getLimbs() > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many virtual nodes: " + virtualNodes);
+        }
+        if (ring != null) {
+            throw new IllegalStateException("The overlay has already been built");
+        }
+        this.virtualNodes = virtualNodes;
+        this.nodesNumber = physicalNodes * virtualNodes;
+        ar = new AggregateResults(idSpace, nodesNumber);
+    }
+
+    /**
+     * Gets the physical node a node of the ring belongs to.
+     *
+     * @param index The index of the node in the ring.
+     * @return the index of the physical node, between 0 and the number of physical nodes (exclusive).
+     */
+    public int getPhysicalNode(int index) {
+        return (physicalOf != null) ? physicalOf[index] : index;
     }
 
     /**
@@ -63,115 +264,405 @@ public class Coordinator {
      * In any case, the builder throws an exception if at any point it takes more than 500k iterations to build a
      * single node.
      *
-     * After creating the nodes, the builder proceeds to generate each node's finger table and to set each
-     * node's successor and predecessor.
+     * If each physical node has more than one virtual node (see {@link #setVirtualNodes(int)}), its first
+     * identifier is the hash of its address as above, and the k-th one (counting from 0) is the hash of
+     * "IPaddress:port#k"; a virtual identifier that is already taken is replaced by the hash of the same
+     * address with the next unused index. The ring holds all the virtual nodes, and a flat array maps each of
+     * them to its physical node.
+     *
+     * After creating the nodes, the builder freezes their IDs into a {@link SortedRing} and proceeds to generate
+     * each node's finger table, with a {@link SortedRing.FingerSweep} over the ring, and to set each
+     * node's successor and predecessor. Finger tables are collected into a single {@link FingerStore}.
+     *
+     * If the parallelism is greater than one, candidate generation and hashing, sorting and finger table
+     * construction are split across a {@link ForkJoinPool}. Candidates are generated in fixed-size blocks, each
+     * with its own random stream split in order from the Coordinator's seed, and duplicates are then discarded
+     * and replaced sequentially, so the overlay only depends on the seed and not on the parallelism.
+     *
+     * The generation of each finger table is traced at the {@link Trace.Level#DEBUG} level, and the progress
+     * of finger table construction is reported at the {@link Trace.Level#INFO} level.
      *
-     * @throws NoSuchAlgorithmException If the current JVM doesn't support SHA-512.
+     * @throws NoSuchAlgorithmException If the current JVM doesn't support the hash algorithm.
      */
     public void buildOverlay() throws NoSuchAlgorithmException {
+        ForkJoinPool pool = (parallelism > 1) ? new ForkJoinPool(parallelism) : null;
         try {
-            Random r = new Random();
-            MessageDigest sha512 = MessageDigest.getInstance("SHA-512");
-            Set<String> generated = new HashSet<>();
-            int iterations = 0;
+            buildOverlay(pool);
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
 
-            for (int i = 0; i < nodesNumber; i++) {
-                // Generate the string
-                String ipAddr = String.format("%d.%d.%d.%d",
-                        r.nextInt(256), r.nextInt(256),
-                        r.nextInt(256), r.nextInt(256));
-                InetAddress addr = InetAddress.getByName(ipAddr);
-                int port = r.nextInt(65536);
-                String iport = addr.getHostAddress() + ":" + port;
-                if (generated.contains(iport)) {
-                    // If the current string has already been generated, retry
-                    i--;
+    /**
+     * Builds the Chord overlay, using the given pool (see {@link #buildOverlay()}).
+     *
+     * @param pool The pool to run the build on, or null for a sequential build.
+     * @throws NoSuchAlgorithmException If the current JVM doesn't support the hash algorithm.
+     */
+    private void buildOverlay(ForkJoinPool pool) throws NoSuchAlgorithmException {
+        int limbs = idSpace.getLimbs();
+        long[] addresses = new long[physicalNodes];
+        long[] ids = new long[nodesNumber * limbs];
+
+        // Generate and hash the candidates, block by block
+        SplittableRandom root = phaseStream(BUILD_PHASE);
+        int blocks = (physicalNodes + GENERATION_BLOCK - 1) / GENERATION_BLOCK;
+        SplittableRandom[] streams = new SplittableRandom[blocks];
+        for (int b = 0; b < blocks; b++) {
+            streams[b] = root.split();
+        }
+        IdHasher hasher = hashAlgorithm.newHasher(idSpace);
+        runTasks(pool, blocks, b -> {
+            int to = Math.min((b + 1) * GENERATION_BLOCK, physicalNodes);
+            for (int i = b * GENERATION_BLOCK; i < to; i++) {
+                addresses[i] = randomAddress(streams[b]);
+            }
+        });
+        new BatchHasher(hasher.copy(), Util.MAX_ADDRESS_LENGTH)
+                .hash(0, physicalNodes, (i, buffer) -> Util.addressToBytes(addresses[i], buffer), ids, pool);
+
+        // Discard duplicates, in order, replacing them with candidates taken from a separate stream
+        SplittableRandom repair = root.split();
+        byte[] name = new byte[Util.MAX_ADDRESS_LENGTH];
+        LongHashSet generated = new LongHashSet(physicalNodes);
+        IdHashSet generatedIds = new IdHashSet(idSpace, ids, nodesNumber);
+        int iterations = 0;
+        for (int i = 0; i < physicalNodes; i++) {
+            if (generated.contains(addresses[i])) {
+                // If the current address has already been generated, retry
+                generateCandidate(repair, hasher, name, i, addresses, ids);
+                i--;
+                iterations++;
+            } else if (!generatedIds.add(i)) {
+                generateCandidate(repair, hasher, name, i, addresses, ids);
+                i--;
+                if (iterations == 500000) {
+                    throw new RuntimeException("Too many collisions in map!");
+                } else {
                     iterations++;
                 }
-                else {
-                    // Generate the hash and truncate it
-                    byte[] sha512Byte = sha512.digest(iport.getBytes());
-                    byte[] id = Util.truncate(sha512Byte, idSpaceBits);
-                    BigInteger curr = new BigInteger(1, id);
-                    if (nodes.containsKey(curr)) {
-                        i--;
-                        if (iterations == 500000) {
-                            throw new RuntimeException("Too many collisions in map!");
-                        } else {
-                            iterations++;
-                        }
-                    } else {
-                        iterations = 0;
-                        nodes.put(curr, new Node(this, idSpaceBits, addr, port, curr));
-                        generated.add(iport);
+            } else {
+                iterations = 0;
+                generated.add(addresses[i]);
+            }
+        }
+        if (virtualNodes > 1) {
+            // The k-th identifier of physical node p is stored at k * physicalNodes + p
+            new BatchHasher(hasher.copy(), Util.MAX_VIRTUAL_ADDRESS_LENGTH).hash(physicalNodes, nodesNumber,
+                    (i, buffer) -> Util.virtualAddressToBytes(addresses[i % physicalNodes], i / physicalNodes, buffer),
+                    ids, pool);
+            byte[] virtualName = new byte[Util.MAX_VIRTUAL_ADDRESS_LENGTH];
+            int suffix = virtualNodes;
+            for (int i = physicalNodes; i < nodesNumber; i++) {
+                for (iterations = 0; !generatedIds.add(i); iterations++) {
+                    if (iterations == 500000) {
+                        throw new RuntimeException("Too many collisions in map!");
                     }
+                    hasher.hash(virtualName, 0, Util.virtualAddressToBytes(addresses[i % physicalNodes], suffix++,
+                            virtualName), ids, i * limbs);
                 }
             }
-
-        } catch (UnknownHostException e) {
-            // Should never occur, since IP addresses are built correctly
-            throw new AssertionError(e);
         }
 
-        Set<BigInteger> keys = nodes.keySet();
+        int[] order = new int[nodesNumber];
+        ring = SortedRing.sort(idSpace, ids, nodesNumber, order, pool);
+        nodes = new Node[nodesNumber];
+        physicalOf = (virtualNodes > 1) ? new int[nodesNumber] : null;
+        int nodeBlocks = (nodesNumber + GENERATION_BLOCK - 1) / GENERATION_BLOCK;
+        runTasks(pool, nodeBlocks, b -> {
+            int to = Math.min((b + 1) * GENERATION_BLOCK, nodesNumber);
+            for (int i = b * GENERATION_BLOCK; i < to; i++) {
+                int physical = order[i] % physicalNodes;
+                nodes[i] = new Node(this, addresses[physical], ring.getId(i), i);
+                if (physicalOf != null) {
+                    physicalOf[i] = physical;
+                }
+            }
+        });
+        if (physicalOf != null) {
+            ar.setPhysicalNodes(physicalOf, physicalNodes);
+        }
 
-        Node prev = nodes.get(nodes.lastKey());
-        int count = 0;
-        for(BigInteger id: keys) {
-            // Calculate the [prev, curr) interval's length for statistics purposes
-            BigInteger interval = id.subtract(prev.getId());
-            if (count == 0)
-                // The first time, the interval is negative since the ring wraps around
-                // Add 2^(idSpaceBits) to compensate
-                interval = interval.add(idSpace);
-            ar.addDistance(interval);
-            Node n = nodes.get(id);
+        Node prev = nodes[nodesNumber - 1];
+        for (Node n: nodes) {
             prev.setSuccessor(n);
             n.setPredecessor(prev);
             prev = n;
-            count++;
-            System.out.println("Generating fingertable #" + count);
-            BigInteger[] ftab = createFingerTable(id);
-            n.setFingertable(ftab);
         }
+        collectDistances();
+
+        // Each segment of the ring gets its own sweep
+        int segments = (pool == null) ? 1 : Math.min(nodesNumber, parallelism * 4);
+        FingerStore.Builder builder = new FingerStore.Builder(nodesNumber, idSpaceBits, segments);
+        boolean verbose = Trace.isEnabled(Trace.Level.DEBUG);
+        try (ProgressReporter progress = new ProgressReporter("Finger tables", nodesNumber, PROGRESS_INTERVAL)) {
+            runTasks(pool, segments, s -> {
+                int from = (int) ((long) nodesNumber * s / segments), to = (int) ((long) nodesNumber * (s + 1) / segments);
+                SortedRing.FingerSweep sweep = ring.fingerSweep(from);
+                int[] fingers = new int[idSpaceBits];
+                for (int i = from; i < to; i++) {
+                    if (verbose) {
+                        Trace.getOutput().println("Generating fingertable #" + (i + 1));
+                    }
+                    sweep.next(fingers);
+                    builder.add(s, i, fingers);
+                    // Reported once per block, so the workers rarely contend for the counter
+                    if ((i + 1 - from) % GENERATION_BLOCK == 0 || i + 1 == to) {
+                        progress.add((i - from) % GENERATION_BLOCK + 1);
+                    }
+                }
+            });
+        }
+        fingerStore = builder.build();
+        lookupEngine = new LookupEngine(ring, fingerStore);
+    }
+
+    /**
+     * Adds the distances between consecutive nodes to the statistics.
+     */
+    private void collectDistances() {
+        Node prev = nodes[nodesNumber - 1];
+        for (Node n: nodes) {
+            // Calculate the [prev, curr) interval's length for statistics purposes
+            // (the subtraction is modulo 2^(idSpaceBits), so the first interval wraps around correctly)
+            RingId distance = n.getId().subtract(prev.getId());
+            ar.addDistance(distance);
+            if (physicalOf != null) {
+                ar.addKeyShare(n.getIndex(), distance);
+            }
+            prev = n;
+        }
+    }
+
+    /**
+     * Adds a node with a random address to the overlay (see {@link #join(long)}). The addresses are drawn
+     * from a random stream derived from the Coordinator's seed; an address whose identifier is already taken
+     * is replaced by a new one.
+     *
+     * @return the index of the new node in the ring.
+     * @throws NoSuchAlgorithmException If the current JVM doesn't support the hash algorithm.
+     * @throws IllegalStateException If physical nodes have more than one virtual node.
+     */
+    public int join() throws NoSuchAlgorithmException {
+        checkChurn();
+        if (churnRandom == null) {
+            churnRandom = phaseStream(CHURN_PHASE);
+        }
+        long[] id = new long[idSpace.getLimbs()];
+        for (int iterations = 0; iterations < 500000; iterations++) {
+            long address = randomAddress(churnRandom);
+            hashAddress(address, id);
+            if (ring.indexOf(id, 0) < 0) {
+                return insertNode(address, id);
+            }
+        }
+        throw new RuntimeException("Too many collisions in map!");
+    }
+
+    /**
+     * Adds a node to the overlay, once it has been built.
+     *
+     * The new node gets the index following its predecessor's, so the indices of the nodes that follow it
+     * grow by one, and it is linked to its predecessor and successor. Its finger table is found with one
+     * search on the ring per finger. The only fingers of the other nodes that change are those whose targets
+     * fall in the arc between the new node's predecessor (excluded) and the new node itself (included), which
+     * now point to the new node: for each finger index i, the nodes owning such fingers are those whose
+     * identifiers fall in that arc moved back by 2^i, which are found with a range query on the sorted ring.
+     * All the other finger tables are copied, with their targets renumbered, without being recomputed.
+     *
+     * @param address The IPv4 address and the port of the node, packed as in {@link Util#packAddress(int, int)}.
+     * @return the index of the new node in the ring.
+     * @throws NoSuchAlgorithmException If the current JVM doesn't support the hash algorithm.
+     * @throws IllegalArgumentException If the identifier of the node is already taken.
+     * @throws IllegalStateException If physical nodes have more than one virtual node.
+     */
+    public int join(long address) throws NoSuchAlgorithmException {
+        checkChurn();
+        long[] id = new long[idSpace.getLimbs()];
+        hashAddress(address, id);
+        if (ring.indexOf(id, 0) >= 0) {
+            throw new IllegalArgumentException("The identifier of " + Util.addressToString(address) + " is already taken");
+        }
+        return insertNode(address, id);
     }
 
     /**
-     * Creates the finger table for a particular ID.
+     * Checks that nodes can join or leave the overlay, i.e. that physical nodes have a single identifier.
      *
-     * The built finger tables employ a trick to save space for the data structure: if for any x it holds
-     * {@code fingertable[x] == fingertable[0] == successor(ID)}, then a null value is stored instead
-     * of the actual value. In this way, the algorithm that uses the finger table ({@link Node}'s {@code lookup} method)
-     * has to substitute any null value with {@code fingertable[0]}.
-     * @param id the ID of the node for which the finger table must be built
-     * @return an array of {@link BigInteger}s corresponding to the node's finger table
+     * @throws IllegalStateException If physical nodes have more than one virtual node.
      */
-    private BigInteger[] createFingerTable(BigInteger id) {
-        BigInteger[] fTable = new BigInteger[idSpaceBits];
-        BigInteger successor = null;
+    private void checkChurn() {
+        if (virtualNodes > 1) {
+            throw new IllegalStateException("Nodes cannot join or leave an overlay with virtual nodes");
+        }
+    }
+
+    /**
+     * Removes a node from the overlay.
+     *
+     * The indices of the nodes that follow it decrease by one, and its predecessor and successor get linked
+     * to each other. The only fingers of the other nodes that change are those that pointed to the removed
+     * node (i.e. whose targets fall in the arc between its predecessor and itself), which now point to its
+     * successor; all the other finger tables are copied, with their targets renumbered.
+     *
+     * @param index The index of the node in the ring.
+     * @throws IllegalStateException If the node is the only one of the overlay, or if physical nodes have more
+     *                               than one virtual node.
+     */
+    public void leave(int index) {
+        checkChurn();
+        if (nodesNumber == 1) {
+            throw new IllegalStateException("The last node cannot leave the overlay");
+        }
+        Node pred = nodes[(index == 0) ? nodesNumber - 1 : index - 1];
+        Node succ = nodes[(index + 1 == nodesNumber) ? 0 : index + 1];
+        pred.setSuccessor(succ);
+        succ.setPredecessor(pred);
+
+        Node[] newNodes = new Node[nodesNumber - 1];
+        System.arraycopy(nodes, 0, newNodes, 0, index);
+        System.arraycopy(nodes, index + 1, newNodes, index, nodesNumber - index - 1);
+        for (int i = index; i < newNodes.length; i++) {
+            newNodes[i].setIndex(i);
+        }
+        nodes = newNodes;
+        ring = ring.withRemoved(index);
+        fingerStore = fingerStore.withLeave(index);
+        lookupEngine = new LookupEngine(ring, fingerStore);
+        nodesNumber--;
+        distancesStale = true;
+        Trace.log(Trace.Level.DEBUG, () -> "Node #" + (index + 1) + " left");
+    }
+
+    /**
+     * Hashes an address into an identifier, as the addresses of the nodes of the overlay.
+     *
+     * @param address The packed address.
+     * @param dst The array where the identifier is stored.
+     * @throws NoSuchAlgorithmException If the current JVM doesn't support the hash algorithm.
+     */
+    private void hashAddress(long address, long[] dst) throws NoSuchAlgorithmException {
+        if (churnHasher == null) {
+            churnHasher = hashAlgorithm.newHasher(idSpace);
+        }
+        byte[] name = new byte[Util.MAX_ADDRESS_LENGTH];
+        churnHasher.hash(name, 0, Util.addressToBytes(address, name), dst, 0);
+    }
+
+    /**
+     * Inserts a node into the overlay (see {@link #join(long)}).
+     *
+     * @param address The packed address of the node.
+     * @param id The identifier of the node, which is not in the ring.
+     * @return the index of the new node in the ring.
+     */
+    private int insertNode(long address, long[] id) {
+        int limbs = idSpace.getLimbs();
+        long[] ids = ring.ids();
+        int node = ring.rank(id, 0);
+        int pred = (node == 0) ? nodesNumber - 1 : node - 1;
+
+        // The fingers whose targets fall in (pred, id] now point to the new node: for finger i, they belong
+        // to the nodes in (pred - 2^i, id - 2^i]
+        long[] power = new long[limbs], from = new long[limbs], to = new long[limbs], zero = new long[limbs];
+        long[] changes = new long[64];
+        int changeCount = 0;
         for (int i = 0; i < idSpaceBits; i++) {
-            BigInteger pointed = BigInteger.TWO.pow(i).add(id).mod(idSpace);
-            BigInteger found = findNearestNode(pointed);
-            if (0 == i) successor = found;
-            else if (found.equals(successor)) {
-                found = null;
+            idSpace.addPowerOfTwo(zero, 0, i, power, 0);
+            idSpace.subtract(ids, pred * limbs, power, 0, from, 0);
+            idSpace.subtract(id, 0, power, 0, to, 0);
+            idSpace.addPowerOfTwo(from, 0, 0, power, 0);
+            int n = ring.successorIndex(power, 0);
+            for (int steps = 0; steps < nodesNumber
+                    && Util.isInInterval(true, idSpace, ids, n * limbs, from, 0, to, 0); steps++) {
+                if (changeCount == changes.length) {
+                    changes = Arrays.copyOf(changes, changeCount * 2);
+                }
+                changes[changeCount++] = ((long) n << 16) | i;
+                n = (n + 1 == nodesNumber) ? 0 : n + 1;
             }
-            fTable[i] = found;
         }
+        Arrays.sort(changes, 0, changeCount);
+
+        SortedRing newRing = ring.withInserted(id, 0, node);
+        int[] fingers = new int[idSpaceBits];
+        for (int i = 0; i < idSpaceBits; i++) {
+            idSpace.addPowerOfTwo(id, 0, i, power, 0);
+            fingers[i] = newRing.successorIndex(power, 0);
+        }
+        fingerStore = fingerStore.withJoin(node, fingers, changes, changeCount);
+        ring = newRing;
+        lookupEngine = new LookupEngine(ring, fingerStore);
+
+        Node[] newNodes = new Node[nodesNumber + 1];
+        System.arraycopy(nodes, 0, newNodes, 0, node);
+        System.arraycopy(nodes, node, newNodes, node + 1, nodesNumber - node);
+        for (int i = node + 1; i < newNodes.length; i++) {
+            newNodes[i].setIndex(i);
+        }
+        Node x = new Node(this, address, ring.getId(node), node);
+        newNodes[node] = x;
+        nodes = newNodes;
+        nodesNumber++;
+        Node p = nodes[(node == 0) ? nodesNumber - 1 : node - 1];
+        Node s = nodes[(node + 1 == nodesNumber) ? 0 : node + 1];
+        p.setSuccessor(x);
+        x.setPredecessor(p);
+        x.setSuccessor(s);
+        s.setPredecessor(x);
+        distancesStale = true;
+        int repaired = changeCount;
+        Trace.log(Trace.Level.DEBUG, () -> "Node #" + (node + 1) + " joined, " + repaired + " fingers repaired");
+        return node;
+    }
 
-        return fTable;
+    /**
+     * Draws a random "IPaddress:port" pair, packed into a long (see {@link Util#packAddress(int, int)}).
+     *
+     * @param r The random stream to draw the address and the port from.
+     * @return the packed address.
+     */
+    private static long randomAddress(SplittableRandom r) {
+        int addr = r.nextInt(256) << 24 | r.nextInt(256) << 16 | r.nextInt(256) << 8 | r.nextInt(256);
+        int port = r.nextInt(65536);
+        return Util.packAddress(addr, port);
     }
 
     /**
-     * Given an ID, returns the ID of the first node n such that {@code n.getID() >= ID}.
-     * @param id The ID to be searched.
-     * @return The ID of the first node that satisfies the above property.
+     * Generates a candidate node, i.e. a random "IPaddress:port" pair and its truncated hash.
+     *
+     * The readable form of the address is written into a reusable buffer to be hashed, so no memory
+     * is allocated.
+     *
+     * @param r The random stream to draw the address and the port from.
+     * @param hasher The hasher used to hash the candidate.
+     * @param name A buffer for the readable form of the address, {@link Util#MAX_ADDRESS_LENGTH} bytes long.
+     * @param i The index where the candidate gets stored.
+     * @param addresses The array of the packed addresses.
+     * @param ids The array of the identifiers, one after the other.
      */
-    private BigInteger findNearestNode(BigInteger id) {
-        try {
-            return nodes.tailMap(id).firstKey();
-        } catch (NoSuchElementException e) {
-            return nodes.firstKey();
+    private void generateCandidate(SplittableRandom r, IdHasher hasher, byte[] name, int i,
+                                   long[] addresses, long[] ids) {
+        addresses[i] = randomAddress(r);
+        hasher.hash(name, 0, Util.addressToBytes(addresses[i], name), ids, i * idSpace.getLimbs());
+    }
+
+    /**
+     * Runs a number of independent tasks, either sequentially or on a pool.
+     *
+     * @param pool The pool to run the tasks on, or null to run them sequentially in the current thread.
+     * @param tasks The number of tasks.
+     * @param task The body of the tasks, which receives the index of the task to run.
+     */
+    static void runTasks(ForkJoinPool pool, int tasks, IntConsumer task) {
+        if (pool == null) {
+            for (int t = 0; t < tasks; t++) {
+                task.accept(t);
+            }
+        } else {
+            pool.submit(() -> IntStream.range(0, tasks).parallel().forEach(task)).join();
         }
     }
 
@@ -182,285 +673,364 @@ public class Coordinator {
      * @param b The ID of the desired node.
      * @return The desired {@link Node}, or null.
      */
-    public Node getNode(BigInteger b) {
-        return nodes.get(b);
+    public Node getNode(RingId b) {
+        int index = ring.indexOf(b);
+        return (index < 0) ? null : nodes[index];
+    }
+
+    /**
+     * Returns the {@link Node} with a given index in the ring.
+     *
+     * @param index The index of the desired node.
+     * @return The desired {@link Node}.
+     */
+    public Node getNode(int index) {
+        return nodes[index];
+    }
+
+    /**
+     * Returns the identifiers of the nodes, sorted into a ring.
+     *
+     * @return the {@link SortedRing} of the overlay.
+     */
+    public SortedRing getRing() {
+        return ring;
+    }
+
+    /**
+     * Returns the finger tables of the nodes.
+     *
+     * @return the {@link FingerStore} of the overlay.
+     */
+    public FingerStore getFingerStore() {
+        return fingerStore;
+    }
+
+    /**
+     * Returns the engine that routes the queries on the overlay.
+     *
+     * @return the {@link LookupEngine} of the overlay.
+     */
+    public LookupEngine getLookupEngine() {
+        return lookupEngine;
     }
 
     /**
      * Represents the overlay in a Comma-Separate Values (CSV) format.
      *
+     * The whole topology is held in memory; large overlays should rather be written with
+     * {@link #writeTopology(Writer)}.
+     *
      * @return a {@link String} representing the overlay in CSV format.
      */
     public String getTopology() {
-        StringBuilder sb = new StringBuilder();
-
-        for (BigInteger id: nodes.keySet()) {
-            sb.append(nodes.get(id).toCSV());
+        StringWriter sw = new StringWriter();
+        try {
+            writeTopology(sw);
+        } catch (IOException e) {
+            // Should never occur, since a StringWriter doesn't throw
+            throw new AssertionError(e);
         }
+        return sw.toString();
+    }
+
+    /**
+     * Writes the overlay in a Comma-Separate Values (CSV) format, streaming it to a {@link Writer}
+     * (see {@link TopologyWriter}).
+     *
+     * @param out The {@link Writer} the overlay is written to; it should be buffered.
+     * @throws IOException If the overlay can't be written.
+     */
+    public void writeTopology(Writer out) throws IOException {
+        new TopologyWriter(ring, fingerStore).write(out);
+    }
 
-        return sb.toString();
+    /**
+     * Saves the overlay to a file in a compact binary format, which can be loaded back with
+     * {@link TopologyFile#load(Path)}.
+     *
+     * @param path The path of the file.
+     * @throws IOException If the file can't be written.
+     */
+    public void writeBinaryTopology(Path path) throws IOException {
+        new TopologyFile(ring, fingerStore).write(path);
     }
 
     /**
      * Performs a simulation of a certain number of queries, as if they were done by different nodes.
      * Each query is logged for statistics purposes.
      *
+     * Queries are performed in rounds: in each round every node performs one query, in a random order.
+     * The search keys are drawn in fixed-size blocks of queries, each with its own random stream split in
+     * order from the Coordinator's seed. The blocks are split into as many contiguous ranges as the
+     * Coordinator's parallelism, each one simulated by a separate worker with its own digest and statistics,
+     * which are merged at the end; so the queries, and the results, only depend on the seed and not on the
+     * parallelism.
+     *
+     * Each query is traced at the {@link Trace.Level#TRACE} level, and the progress of the simulation is
+     * reported at the {@link Trace.Level#INFO} level.
+     *
      * @param number The number of queries to be performed.
      * @return a {@link String} containing statistics of the simulation.
-     * @throws NoSuchAlgorithmException If the current JVM doesn't support SHA-512.
+     * @throws NoSuchAlgorithmException If the current JVM doesn't support the hash algorithm.
      */
     public String simulateRouting(int number) throws NoSuchAlgorithmException {
-        MessageDigest sha512 = MessageDigest.getInstance("SHA-512");
-        Random r = new Random();
-
-        // Take a list of nodes randomly shuffled
-        ArrayList<BigInteger> integers = new ArrayList<>(nodes.keySet());
-        Collections.shuffle(integers);
+        if (distancesStale) {
+            // Nodes joined or left: the statistics start over, from the current ring
+            ar = new AggregateResults(idSpace, nodesNumber);
+            collectDistances();
+            distancesStale = false;
+        }
+        IdHasher hasher = hashAlgorithm.newHasher(idSpace);
 
+        SplittableRandom root = phaseStream(SIMULATION_PHASE);
+        // The order of the nodes in each round
+        long[] roundSeeds = new long[(number + nodesNumber - 1) / nodesNumber];
+        for (int i = 0; i < roundSeeds.length; i++) {
+            roundSeeds[i] = root.nextLong();
+        }
+        int blocks = (number + GENERATION_BLOCK - 1) / GENERATION_BLOCK;
+        SplittableRandom[] streams = new SplittableRandom[blocks];
+        for (int b = 0; b < blocks; b++) {
+            streams[b] = root.split();
+        }
+        int workers = Math.max(1, Math.min(parallelism, blocks));
+        AggregateResults[] results = new AggregateResults[workers];
+        IdHasher[] hashers = new IdHasher[workers];
+        for (int w = 0; w < workers; w++) {
+            results[w] = new AggregateResults(idSpace, nodesNumber);
+            hashers[w] = hasher.copy();
+        }
 
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < number; i++) {
-            // If the list is empty, refill it
-            if (integers.isEmpty()) {
-                integers.addAll(nodes.keySet());
-                Collections.shuffle(integers);
-            }
-            // The ID to be searched is generated as a random byte array of size idSpaceBits
-            byte[] random = new byte[idSpaceBits];
-            r.nextBytes(random);
-            System.out.println("Generated search key: " + Util.bytesToHex(random));
-            // Then, it gets hashed and truncated
-            BigInteger toSearch = new BigInteger(1, Util.truncate(sha512.digest(random), idSpaceBits));
-            // Elect a random node to be the one performing the query
-            Node n = nodes.get(integers.remove(0));
-            RouteLogger rl = new RouteLogger(toSearch, n.getId());
-            System.out.println("+++++++++++++ Starting searching for " + Util.bytesToHex(toSearch.toByteArray()) +
-                               " from node " + n.getReadableName() + " (" + Util.bytesToHex(n.getId().toByteArray())+ ")");
-            n.lookup(toSearch, rl);
-            System.out.println("+++++++++++++ Search ended for " + Util.bytesToHex(toSearch.toByteArray()) + " no. hops: " + rl.getNumberOfHops());
-            // Log useful statistics
-            ar.addMultipleQueries(rl.getHops());
-            ar.addHopCounts(rl.getNumberOfHops());
-            ar.addEndNodeCount(Util.bytesToHex(rl.getEndNode().toByteArray()));
-            ar.addSingleQuery(rl.getEndNode());
-        }
-
-        sb.append(ar.toCSV());
-        return sb.toString();
-    }
-
-    /**
-     * A Class to hold aggregate statistics on the ran simulations.
-     */
-    private class AggregateResults {
-        /**
-         * Stores the number of queries that each node performs.
-         *
-         * (A node performs a query if its {@code lookup} method is called.)
-         */
-        Map<BigInteger, Integer> queriesReceivedByEachNode = new HashMap<>();
-        /**
-         * Stores the number of nodes that perform a certain number of queries,
-         * i.e. if there are x nodes that perform y queries (each), then the
-         * pair (y, x) is stored in this map.
-         */
-        Map<Integer, Integer> nodesForEachQueryNumber = new HashMap<>();
-        /**
-         * Stores the number of occurrences of a certain distance between
-         * any node and its predecessor.
-         */
-        Map<BigInteger, Integer> distances = new HashMap<>();
-        /**
-         * Stores the number of occurrences of queries of a certain length.
-         */
-        Map<Integer, Integer> hopCounts = new HashMap<>();
-        /**
-         * Stores a list of nodes that are endnodes for some query (and the
-         * number of queries for which that particular node is endnode).
-         */
-        Map<String, Integer> endnodes = new HashMap<>();
-        /**
-         * Counts the distinct endnodes
-         */
-        int endNodeCount = 0;
-        /**
-         * Standard deviation for the distance between consecutive nodes.
-         */
-        double stdDevDist = 0.0;
-        /**
-         * Average distance (number of identifiers) between consecutive nodes.
-         */
-        double avgDist = 0.0;
-        /**
-         * Standard deviation of the number of hops for a query.
-         */
-        double stdDevHops = 0.0;
-        /**
-         * Average number of hops for a query.
-         */
-        double avgHops = 0.0;
-        /**
-         * Average number of queries that are performed by each node.
-         */
-        double avgQueriesPerNode = 0.0;
-
-        /**
-         * Adds the distance between two nodes and updates the average and standard deviation.
-         *
-         * @param dist The distance to add to the statistics.
-         */
-        void addDistance(BigInteger dist) {
-            update(distances, dist);
-            BigDecimal sum = BigDecimal.ZERO, size = BigDecimal.ZERO, stdevsum = BigDecimal.ZERO;
-            for (BigInteger hop: distances.keySet()) {
-                int count = distances.get(hop);
-                BigDecimal bd = new BigDecimal(String.format("%d", count));
-                sum = sum.add(bd.multiply(new BigDecimal(hop)));
-                size = size.add(bd);
-            }
-            BigDecimal avgDistBD = sum.divide(size, RoundingMode.HALF_DOWN);
-            avgDist = avgDistBD.doubleValue();
-            for (BigInteger hop: distances.keySet()) {
-                int count = distances.get(hop);
-                BigDecimal bd = new BigDecimal(String.format("%d", count));
-                stdevsum = stdevsum.add(bd.multiply(new BigDecimal(hop).subtract(avgDistBD).pow(2)));
-            }
-            stdDevDist = stdevsum.divide(size, RoundingMode.HALF_DOWN).sqrt(MathContext.DECIMAL32).doubleValue();
-        }
-
-        /**
-         * Adds an endnode to the statistics.
-         *
-         * @param s The endnode to add to the statistics.
-         */
-        void addEndNodeCount(String s) {
-            update(endnodes, s);
-            endNodeCount = endnodes.size();
-        }
-
-        /**
-         * Adds a single query to the statistics, updating also the average queries per node.
-         *
-         * @param query The query to add to the statistics.
-         */
-        void addSingleQuery(BigInteger query) {
-            update(queriesReceivedByEachNode, query);
-            update(nodesForEachQueryNumber, queriesReceivedByEachNode.get(query));
-            avgQueriesPerNode = average(nodesForEachQueryNumber);
-        }
-
-        /**
-         * Add a sequence of queries to the statistics, updating also the average queries per node.
-         *
-         * @param qc And {@link ArrayList} of queries to add to the statistics.
-         */
-        void addMultipleQueries(ArrayList<BigInteger> qc) {
-            for (BigInteger step: qc) {
-                update(queriesReceivedByEachNode, step);
-                update(nodesForEachQueryNumber, queriesReceivedByEachNode.get(step));
-            }
-            avgQueriesPerNode = average(nodesForEachQueryNumber);
-        }
-
-        /**
-         * Adds the number of hops of a query to the statistics, updating the relevant average and standard deviation.
-         *
-         * @param hops Number of hops of the current query
-         */
-        void addHopCounts(int hops) {
-            update(hopCounts, hops);
-            avgHops = average(hopCounts);
-            stdDevHops = stdDeviation(hopCounts, avgHops);
-        }
-
-        /**
-         * Outputs the current statistics in CSV format.
-         *
-         * @return A {@link String} containing the statistics collected insofar, in CSV format.
-         */
-        String toCSV() {
-            StringBuilder sb = new StringBuilder();
-
-            sb
-                    .append("avg_queries_per_node,").append(avgQueriesPerNode).append('\n')
-                    .append("end_nodes,").append(endNodeCount).append('\n')
-                    .append("average_distance,").append(avgDist).append('\n')
-                    .append("std_dev_distance,").append(stdDevDist).append('\n')
-                    .append("avg_hops_per_query,").append(avgHops).append('\n')
-                    .append("std_dev_hops_per_query,").append(stdDevHops).append('\n')
-                    .append('\n').append("distance,count").append('\n');
-
-            for (BigInteger distance : distances.keySet()) {
-                sb.append(distance).append(',').append(distances.get(distance)).append('\n');
+        ForkJoinPool pool = (workers > 1) ? new ForkJoinPool(workers) : null;
+        try (ProgressReporter progress = new ProgressReporter("Queries", number, PROGRESS_INTERVAL)) {
+            runTasks(pool, workers, w -> simulateQueries(
+                    Math.min(number, (int) ((long) blocks * w / workers) * GENERATION_BLOCK),
+                    Math.min(number, (int) ((long) blocks * (w + 1) / workers) * GENERATION_BLOCK),
+                    roundSeeds, streams, hashers[w], results[w], progress));
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
             }
+        }
+        for (AggregateResults result: results) {
+            ar.merge(result);
+        }
+        if (pathSources > 0) {
+            ar.setPathLengths(computePathLengths(pathSources));
+        }
+        if (degreeAnalysis) {
+            ar.setClustering(computeClustering());
+            ar.setInDegrees(new GraphMetrics(fingerStore).inDegreeDistribution());
+        }
 
-            sb.append('\n').append("query_number,nodes").append('\n');
+        return ar.toCSV();
+    }
 
-            for (Integer query: nodesForEachQueryNumber.keySet()) {
-                sb.append(query).append(',').append(nodesForEachQueryNumber.get(query)).append('\n');
-            }
+    /**
+     * Performs a message-level simulation of a certain number of queries on the overlay, where the queries are
+     * issued at a given rate and every step of a lookup is a message subject to the latency of its link and to
+     * the queue of the node receiving it (see {@link MessageSimulation}). The queries and the latencies are
+     * drawn from a random stream derived from the Coordinator's seed.
+     *
+     * @param number The number of queries to be performed.
+     * @param rate The rate at which the queries are issued, in queries per second.
+     * @param latencyModel The latency of the links.
+     * @param serviceTime The time a node takes to process a message, in microseconds.
+     * @return a {@link String} containing statistics of the simulation, in CSV format.
+     */
+    public String simulateMessages(int number, double rate, LatencyModel latencyModel, long serviceTime) {
+        MessageSimulation simulation = new MessageSimulation(ring, fingerStore, latencyModel, serviceTime);
+        try (ProgressReporter progress = new ProgressReporter("Messages", number, PROGRESS_INTERVAL)) {
+            simulation.run(number, rate, phaseStream(MESSAGE_PHASE));
+            progress.add(number);
+        }
+        return simulation.toCSV();
+    }
+
+    /**
+     * Simulates Chord's periodic maintenance protocol (see {@link StabilizationSimulation}): a fraction of the
+     * nodes of the overlay start with exact routing state, the others join over time, and lookups are issued
+     * while the protocol repairs the routing state. The nodes, the keys and the timers are drawn from a random
+     * stream derived from the Coordinator's seed.
+     *
+     * @param interval The period of the maintenance protocol, in microseconds.
+     * @param initial The number of nodes that start in the overlay.
+     * @param joinRate The rate at which the other nodes join the overlay, in nodes per second.
+     * @param lookupRate The rate at which the lookups are issued, in lookups per second.
+     * @param duration The simulated time, in microseconds.
+     * @return a {@link String} containing statistics of the simulation, in CSV format.
+     */
+    public String simulateStabilization(long interval, int initial, double joinRate, double lookupRate,
+                                        long duration) {
+        StabilizationSimulation simulation = new StabilizationSimulation(ring, interval);
+        simulation.run(initial, joinRate, lookupRate, duration, phaseStream(MAINTENANCE_PHASE));
+        Trace.log(Trace.Level.INFO, () -> String.format(Locale.ROOT,
+                "Stabilization every %.1f ms: %.2f messages per node per second, %.4f of the lookups correct",
+                interval / 1000.0, simulation.getMessageRate(), simulation.getCorrectness()));
+        return simulation.toCSV();
+    }
 
-            sb.append('\n').append("hops_per_query,times").append('\n');
+    /**
+     * Injects failures in the overlay: a fraction of the nodes fail at once, and a number of lookups are
+     * performed by the surviving nodes, which route around the failed ones with their successor lists (see
+     * {@link FailureSimulation}). The overlay itself is left untouched. The failed nodes, the origins and the
+     * keys are drawn from a random stream derived from the Coordinator's seed.
+     *
+     * @param fraction The fraction of the nodes that fail.
+     * @param successors The length of the successor lists.
+     * @param number The number of lookups to be performed.
+     * @return a {@link String} containing statistics of the simulation, in CSV format.
+     */
+    public String simulateFailures(double fraction, int successors, int number) {
+        FailureSimulation simulation = new FailureSimulation(ring, fingerStore, successors);
+        try (ProgressReporter progress = new ProgressReporter("Failures", number, PROGRESS_INTERVAL)) {
+            simulation.run(fraction, number, phaseStream(FAILURE_PHASE));
+            progress.add(number);
+        }
+        Trace.log(Trace.Level.INFO, () -> String.format(Locale.ROOT,
+                "%.1f%% of the nodes failed: %.4f of the lookups succeeded, %.2f extra hops, %.2f timeouts",
+                fraction * 100, simulation.getSuccessRate(), simulation.getExtraHops(), simulation.getTimeouts()));
+        return simulation.toCSV();
+    }
 
-            for (Integer query: hopCounts.keySet()) {
-                sb.append(query).append(',').append(hopCounts.get(query)).append('\n');
+    /**
+     * Computes the lengths of the shortest paths of the finger graph (see {@link GraphMetrics}) from a number
+     * of source nodes, spreading the searches over the Coordinator's parallelism.
+     *
+     * If there are fewer sources than nodes, the sources are sampled uniformly from the nodes, with a random
+     * stream derived from the Coordinator's seed, so the result only depends on the seed; the diameter is
+     * then a lower bound.
+     *
+     * @param sources The number of sources; all the nodes are sources if it is not lower than their number.
+     * @return the lengths of the shortest paths from the sources.
+     */
+    public GraphMetrics.PathLengths computePathLengths(int sources) {
+        int[] order = new int[nodesNumber];
+        if (sources < nodesNumber) {
+            shuffle(order, phaseStream(ANALYSIS_PHASE));
+            order = Arrays.copyOf(order, sources);
+        } else {
+            for (int i = 0; i < nodesNumber; i++) {
+                order[i] = i;
             }
+        }
+        ForkJoinPool pool = (parallelism > 1) ? new ForkJoinPool(parallelism) : null;
+        try {
+            return new GraphMetrics(fingerStore).shortestPaths(order, pool);
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Simulates a range of queries (see {@link #simulateRouting(int)}).
+     *
+     * @param from The index of the first query (inclusive), the first of a block.
+     * @param to The index of the last query (exclusive).
+     * @param roundSeeds The seeds of the random orders of the nodes in each round.
+     * @param streams The random streams the search keys of each block are drawn from.
+     * @param hasher The hasher used to hash the search keys.
+     * @param results The object where the statistics are collected.
+     * @param progress The reporter of the progress of the simulation.
+     */
+    private void simulateQueries(int from, int to, long[] roundSeeds, SplittableRandom[] streams,
+                                 IdHasher hasher, AggregateResults results, ProgressReporter progress) {
+        boolean verbose = Trace.isEnabled(Trace.Level.TRACE);
+        PrintStream out = Trace.getOutput();
+        int limbs = idSpace.getLimbs();
+        byte[] random = new byte[idSpaceBits];
+        byte[] inputs = new byte[GENERATION_BLOCK * idSpaceBits];
+        long[] keys = new long[GENERATION_BLOCK * limbs];
+        BatchHasher batch = new BatchHasher(hasher, idSpaceBits);
+        LookupResult lr = new LookupResult();
+        int[] order = new int[nodesNumber];
+        int round = -1;
 
-            return sb.toString();
-        }
-
-        /**
-         * Computes the average of a map where the keys are the elements
-         * and the values are their occurrences' count.
-         *
-         * @param m The {@link Map} that stores the data to average.
-         * @return The average of the given data.
-         */
-        private double average(Map<Integer, Integer> m) {
-            int sum = 0, size = 0;
-            for (int hop: m.keySet()) {
-                int count = m.get(hop);
-                sum += hop * count;
-                size += count;
+        for (int block = from; block < to; block += GENERATION_BLOCK) {
+            int count = Math.min(to - block, GENERATION_BLOCK);
+            SplittableRandom r = streams[block / GENERATION_BLOCK];
+            // The IDs to be searched are generated as random byte arrays of size idSpaceBits
+            for (int k = 0; k < count; k++) {
+                r.nextBytes(random);
+                System.arraycopy(random, 0, inputs, k * idSpaceBits, idSpaceBits);
             }
-            return ((double) sum)/size;
-        }
-
-        /**
-         * Computes the standard deviation of a map where the keys are the elements
-         * and the values are their occurrences' count.
-         *
-         * @param m The {@link Map} that stores the data to find the standard deviation.
-         * @param avg The average for the abovementioned map.
-         * @return The standard deviation of the given data.
-         */
-        private double stdDeviation(Map<Integer, Integer> m, double avg) {
-            double sum = 0.0, size = 0.0;
-            for (int hop: m.keySet()) {
-                int count = m.get(hop);
-                sum += (hop - avg) * (hop - avg) * count;
-                size += count;
+            // Then, they get hashed and truncated all together
+            batch.hash(inputs, idSpaceBits, count, keys, null);
+
+            for (int k = 0; k < count; k++) {
+                int i = block + k;
+                if (i / nodesNumber != round) {
+                    round = i / nodesNumber;
+                    shuffle(order, new SplittableRandom(roundSeeds[round]));
+                }
+                // Elect the node performing the query
+                Node n = nodes[order[i % nodesNumber]];
+                if (verbose) {
+                    byte[] generated = Arrays.copyOfRange(inputs, k * idSpaceBits, (k + 1) * idSpaceBits);
+                    out.println("Generated search key: " + Util.bytesToHex(generated));
+                    String key = Util.bytesToHex(idSpace.toByteArray(keys, k * limbs));
+                    out.println("+++++++++++++ Starting searching for " + key +
+                            " from node " + n.getReadableName() + " (" + Util.bytesToHex(n.getId().toByteArray()) + ")");
+                    lookupEngine.lookup(n.getIndex(), keys, k * limbs, lr);
+                    out.println("+++++++++++++ Search ended for " + key + " no. hops: " + lr.getHops());
+                } else {
+                    lookupEngine.lookup(n.getIndex(), keys, k * limbs, lr);
+                }
+                // Log useful statistics
+                results.addLookup(lr);
             }
-            return Math.sqrt(sum/size);
-        }
-
-        /**
-         * Updates one statistics with the received data.
-         *
-         * @param m the Map containing the data for the statistics.
-         * @param key The newly-received data.
-         * @param <T> The type of the data.
-         */
-        private <T> void update(Map<T, Integer> m, T key) {
-            if (m.containsKey(key)) {
-                int count = m.get(key);
-                count++;
-                m.put(key, count);
-            } else {
-                m.put(key, 1);
+            progress.add(count);
+        }
+    }
+
+    /**
+     * Computes the local clustering coefficients of the finger graph (see {@link GraphMetrics}), spreading
+     * the triangle count over the Coordinator's parallelism.
+     *
+     * @return the clustering coefficients of the nodes.
+     */
+    public GraphMetrics.Clustering computeClustering() {
+        ForkJoinPool pool = (parallelism > 1) ? new ForkJoinPool(parallelism) : null;
+        try {
+            return new GraphMetrics(fingerStore).clustering(pool);
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
             }
         }
+    }
 
+    /**
+     * Fills an array with a random permutation of the integers from 0 to its length - 1.
+     *
+     * @param a The array to be filled.
+     * @param r The random stream used to shuffle the array.
+     */
+    private static void shuffle(int[] a, SplittableRandom r) {
+        for (int i = 0; i < a.length; i++) {
+            int j = r.nextInt(i + 1);
+            a[i] = a[j];
+            a[j] = i;
+        }
     }
 
+    /**
+     * Returns the random stream of a phase of the simulation. All the streams are derived from the
+     * Coordinator's seed, so that each phase is reproducible independently of the others.
+     *
+     * @param phase The phase (see {@link #BUILD_PHASE}, {@link #SIMULATION_PHASE}, {@link #ANALYSIS_PHASE},
+     *              {@link #MESSAGE_PHASE}, {@link #CHURN_PHASE}, {@link #MAINTENANCE_PHASE}
+     *              and {@link #FAILURE_PHASE}).
+     * @return the random stream of the phase.
+     */
+    private SplittableRandom phaseStream(int phase) {
+        SplittableRandom root = new SplittableRandom(seed);
+        for (int i = 0; i < phase; i++) {
+            root.split();
+        }
+        return root.split();
+    }
 }
@@ -0,0 +1,250 @@
+package it.unipi.di.p2p;
+
+import java.util.Arrays;
+
+/**
+ * The event queue of a discrete-event simulation: a binary min-heap of events ordered by time, stored in
+ * parallel primitive arrays so that scheduling an event neither boxes nor allocates anything once the
+ * arrays have grown to the largest number of pending events.
+ *
+ * An event is a time, a kind, a node and an integer payload, whose meaning is up to the simulation. Events
+ * with the same time are delivered in the order they were scheduled, so a simulation driven by a seeded
+ * random stream is reproducible. Events are consumed with {@link #poll()}, which makes the earliest one the
+ * current event, whose fields are then read with the getters:
+ *
+ * <pre>
+ *     while (scheduler.poll()) {
+ *         switch (scheduler.getKind()) { ... }
+ *     }
+ * </pre>
+ */
+public final class EventScheduler {
+
+    /**
+     * The time of each pending event, in heap order.
+     */
+    private long[] times;
+    /**
+     * The sequence number of each pending event, which breaks the ties between equal times.
+     */
+    private long[] sequences;
+    /**
+     * The kind of each pending event.
+     */
+    private int[] kinds;
+    /**
+     * The node of each pending event.
+     */
+    private int[] nodes;
+    /**
+     * The payload of each pending event.
+     */
+    private int[] payloads;
+    /**
+     * Number of pending events.
+     */
+    private int size = 0;
+    /**
+     * Number of events scheduled so far, used as the sequence number of the next one.
+     */
+    private long scheduled = 0;
+    /**
+     * The time of the current event, i.e. the current time of the simulation.
+     */
+    private long now = 0;
+    /**
+     * The kind of the current event.
+     */
+    private int kind;
+    /**
+     * The node of the current event.
+     */
+    private int node;
+    /**
+     * The payload of the current event.
+     */
+    private int payload;
+
+    /**
+     * Constructor of the class.
+     *
+     * @param capacity The number of pending events the queue is expected to hold, so that it never needs to
+     *                 grow.
+     */
+    public EventScheduler(int capacity) {
+        capacity = Math.max(capacity, 16);
+        times = new long[capacity];
+        sequences = new long[capacity];
+        kinds = new int[capacity];
+        nodes = new int[capacity];
+        payloads = new int[capacity];
+    }
+
+    /**
+     * Schedules an event.
+     *
+     * @param time The time of the event, which must not be earlier than the current time.
+     * @param kind The kind of the event.
+     * @param node The node of the event.
+     * @param payload The payload of the event.
+     */
+    public void schedule(long time, int kind, int node, int payload) {
+        if (time < now) {
+            throw new IllegalArgumentException("Event scheduled in the past: " + time + " < " + now);
+        }
+        if (size == times.length) {
+            int capacity = size * 2;
+            times = Arrays.copyOf(times, capacity);
+            sequences = Arrays.copyOf(sequences, capacity);
+            kinds = Arrays.copyOf(kinds, capacity);
+            nodes = Arrays.copyOf(nodes, capacity);
+            payloads = Arrays.copyOf(payloads, capacity);
+        }
+        long sequence = scheduled++;
+        // Move the hole up from the last position until the new event fits
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!before(time, sequence, times[parent], sequences[parent])) {
+                break;
+            }
+            move(parent, i);
+            i = parent;
+        }
+        set(i, time, sequence, kind, node, payload);
+    }
+
+    /**
+     * Removes the earliest pending event and makes it the current one.
+     *
+     * @return false if there are no pending events.
+     */
+    public boolean poll() {
+        if (size == 0) {
+            return false;
+        }
+        now = times[0];
+        kind = kinds[0];
+        node = nodes[0];
+        payload = payloads[0];
+        int last = --size;
+        if (last > 0) {
+            long time = times[last], sequence = sequences[last];
+            // Move the hole down from the root until the last event fits
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= last) {
+                    break;
+                }
+                if (child + 1 < last && before(times[child + 1], sequences[child + 1], times[child], sequences[child])) {
+                    child++;
+                }
+                if (!before(times[child], sequences[child], time, sequence)) {
+                    break;
+                }
+                move(child, i);
+                i = child;
+            }
+            set(i, time, sequence, kinds[last], nodes[last], payloads[last]);
+        }
+        return true;
+    }
+
+    /**
+     * Gets the number of pending events.
+     * @return the number of pending events.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the time of the earliest pending event.
+     * @return the time of the earliest pending event, or {@link Long#MAX_VALUE} if there are none.
+     */
+    public long peekTime() {
+        return (size > 0) ? times[0] : Long.MAX_VALUE;
+    }
+
+    /**
+     * Gets the number of events scheduled so far.
+     * @return the number of events scheduled so far.
+     */
+    public long getScheduled() {
+        return scheduled;
+    }
+
+    /**
+     * Gets the current time, i.e. the time of the current event.
+     * @return the current time.
+     */
+    public long getTime() {
+        return now;
+    }
+
+    /**
+     * Gets the kind of the current event.
+     * @return the kind of the current event.
+     */
+    public int getKind() {
+        return kind;
+    }
+
+    /**
+     * Gets the node of the current event.
+     * @return the node of the current event.
+     */
+    public int getNode() {
+        return node;
+    }
+
+    /**
+     * Gets the payload of the current event.
+     * @return the payload of the current event.
+     */
+    public int getPayload() {
+        return payload;
+    }
+
+    /**
+     * Compares two events.
+     *
+     * @param time The time of the first event.
+     * @param sequence The sequence number of the first event.
+     * @param otherTime The time of the second event.
+     * @param otherSequence The sequence number of the second event.
+     * @return true if the first event comes before the second one.
+     */
+    private static boolean before(long time, long sequence, long otherTime, long otherSequence) {
+        return time < otherTime || (time == otherTime && sequence < otherSequence);
+    }
+
+    /**
+     * Moves an event to another position of the heap.
+     *
+     * @param from The position of the event.
+     * @param to The new position of the event.
+     */
+    private void move(int from, int to) {
+        set(to, times[from], sequences[from], kinds[from], nodes[from], payloads[from]);
+    }
+
+    /**
+     * Stores an event at a position of the heap.
+     *
+     * @param i The position.
+     * @param time The time of the event.
+     * @param sequence The sequence number of the event.
+     * @param kind The kind of the event.
+     * @param node The node of the event.
+     * @param payload The payload of the event.
+     */
+    private void set(int i, long time, long sequence, int kind, int node, int payload) {
+        times[i] = time;
+        sequences[i] = sequence;
+        kinds[i] = kind;
+        nodes[i] = node;
+        payloads[i] = payload;
+    }
+}
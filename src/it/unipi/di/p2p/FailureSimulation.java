@@ -0,0 +1,224 @@
+package it.unipi.di.p2p;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.SplittableRandom;
+
+/**
+ * A simulation of lookups on an overlay where a fraction of the nodes fail at once, before the survivors
+ * repair their routing state.
+ *
+ * The failed nodes are drawn uniformly at random; the others keep their finger tables as they were, and
+ * route around the failed nodes with their successor lists, as in
+ * {@link LookupEngine#lookup(int, long[], int, BitSet, int, LookupResult)}. Each lookup is issued by a random
+ * live node for a random key, and succeeds if it ends at the live node that is now responsible for the key;
+ * its hops are compared with those of the same lookup, with the same successor lists, on the overlay
+ * without failures.
+ */
+public final class FailureSimulation {
+
+    /**
+     * The identifier space of the ring.
+     */
+    private final IdSpace space;
+    /**
+     * The identifiers of the nodes.
+     */
+    private final SortedRing ring;
+    /**
+     * Number of nodes in the ring.
+     */
+    private final int size;
+    /**
+     * The engine the lookups are routed with.
+     */
+    private final LookupEngine engine;
+    /**
+     * The length of the successor lists.
+     */
+    private final int successors;
+
+    /**
+     * The failed nodes.
+     */
+    private BitSet failed;
+    /**
+     * Number of failed nodes.
+     */
+    private int failedCount;
+    /**
+     * Number of lookups performed.
+     */
+    private int lookups;
+    /**
+     * Number of lookups that ended at the right node.
+     */
+    private int succeeded;
+    /**
+     * Number of lookups that ran out of live candidates.
+     */
+    private int aborted;
+    /**
+     * The sum of the hops of the successful lookups.
+     */
+    private long hops;
+    /**
+     * The sum of the hops the successful lookups took more than without failures, with the same successor
+     * lists.
+     */
+    private long extraHops;
+    /**
+     * The sum of the timeouts of all the lookups.
+     */
+    private long timeouts;
+    /**
+     * For each number of timeouts, the number of lookups that had it.
+     */
+    private long[] timeoutDistribution;
+
+    /**
+     * Constructor of the class.
+     *
+     * @param ring The identifiers of the nodes of the overlay.
+     * @param fingers The finger tables of the nodes of the overlay, before the failures.
+     * @param successors The length of the successor lists, at least one.
+     */
+    public FailureSimulation(SortedRing ring, FingerStore fingers, int successors) {
+        if (successors < 1) {
+            throw new IllegalArgumentException("The successor lists must have at least one node");
+        }
+        this.space = ring.getSpace();
+        this.ring = ring;
+        this.size = ring.size();
+        this.engine = new LookupEngine(ring, fingers);
+        this.successors = successors;
+    }
+
+    /**
+     * Makes a fraction of the nodes fail, and performs a number of lookups.
+     *
+     * @param fraction The fraction of the nodes that fail; at least one node survives.
+     * @param number The number of lookups.
+     * @param random The random stream the failed nodes, the origins and the keys are drawn from.
+     */
+    public void run(double fraction, int number, SplittableRandom random) {
+        if (!(fraction >= 0 && fraction <= 1)) {
+            throw new IllegalArgumentException("Invalid fraction of failed nodes: " + fraction);
+        }
+        // The first nodes of a random permutation fail
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        failedCount = (int) Math.min(size - 1, Math.round(fraction * size));
+        failed = new BitSet(size);
+        for (int i = 0; i < failedCount; i++) {
+            int j = i + random.nextInt(size - i);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+            failed.set(order[i]);
+        }
+        int live = size - failedCount;
+
+        lookups = number;
+        succeeded = 0;
+        aborted = 0;
+        hops = 0;
+        extraHops = 0;
+        timeouts = 0;
+        timeoutDistribution = new long[16];
+        int limbs = space.getLimbs();
+        long[] key = new long[limbs];
+        BitSet none = new BitSet(size);
+        LookupResult baseline = new LookupResult(), result = new LookupResult();
+        for (int q = 0; q < number; q++) {
+            int origin = order[failedCount + random.nextInt(live)];
+            for (int k = 0; k < limbs; k++) {
+                key[k] = random.nextLong();
+            }
+            key[0] &= space.getTopMask();
+            engine.lookup(origin, key, 0, none, successors, baseline);
+            int owner = engine.lookup(origin, key, 0, failed, successors, result);
+            if (owner >= 0 && owner == liveSuccessor(key)) {
+                succeeded++;
+                hops += result.getHops();
+                extraHops += result.getHops() - baseline.getHops();
+            } else if (owner < 0) {
+                aborted++;
+            }
+            timeouts += result.getTimeouts();
+            if (result.getTimeouts() >= timeoutDistribution.length) {
+                timeoutDistribution = Arrays.copyOf(timeoutDistribution,
+                        Math.max(timeoutDistribution.length * 2, result.getTimeouts() + 1));
+            }
+            timeoutDistribution[result.getTimeouts()]++;
+        }
+    }
+
+    /**
+     * Finds the live node responsible for a key.
+     *
+     * @param key The key.
+     * @return the index of the first live node whose identifier is not lower than the key, wrapping around the
+     * ring.
+     */
+    private int liveSuccessor(long[] key) {
+        int n = failed.nextClearBit(ring.successorIndex(key, 0));
+        return (n < size) ? n : failed.nextClearBit(0);
+    }
+
+    /**
+     * Gets the fraction of the lookups of the last run that ended at the right node.
+     * @return the fraction of successful lookups, or 1 if there were none.
+     */
+    public double getSuccessRate() {
+        return (lookups > 0) ? ((double) succeeded) / lookups : 1.0;
+    }
+
+    /**
+     * Gets the average number of hops the successful lookups of the last run took more than without failures.
+     * @return the average number of extra hops.
+     */
+    public double getExtraHops() {
+        return (succeeded > 0) ? ((double) extraHops) / succeeded : 0.0;
+    }
+
+    /**
+     * Gets the average number of timeouts of the lookups of the last run.
+     * @return the average number of timeouts per lookup.
+     */
+    public double getTimeouts() {
+        return (lookups > 0) ? ((double) timeouts) / lookups : 0.0;
+    }
+
+    /**
+     * Outputs the statistics of the last run in CSV format: a summary, followed by the distribution of the
+     * timeouts of the lookups.
+     *
+     * @return A {@link String} containing the statistics of the last run, in CSV format.
+     */
+    public String toCSV() {
+        StringBuilder sb = new StringBuilder();
+        sb
+                .append("nodes,").append(size).append('\n')
+                .append("failed_nodes,").append(failedCount).append('\n')
+                .append("successor_list_length,").append(successors).append('\n')
+                .append("lookups,").append(lookups).append('\n')
+                .append("successful_lookups,").append(succeeded).append('\n')
+                .append("aborted_lookups,").append(aborted).append('\n')
+                .append("wrong_owner_lookups,").append(lookups - succeeded - aborted).append('\n')
+                .append("success_rate,").append(getSuccessRate()).append('\n')
+                .append("avg_hops,").append(succeeded > 0 ? ((double) hops) / succeeded : 0.0).append('\n')
+                .append("avg_extra_hops,").append(getExtraHops()).append('\n')
+                .append("avg_timeouts,").append(getTimeouts()).append('\n');
+
+        sb.append('\n').append("timeouts,lookups").append('\n');
+        for (int t = 0; t < timeoutDistribution.length; t++) {
+            if (timeoutDistribution[t] > 0) {
+                sb.append(t).append(',').append(timeoutDistribution[t]).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+}
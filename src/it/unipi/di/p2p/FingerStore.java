@@ -0,0 +1,404 @@
+package it.unipi.di.p2p;
+
+import java.util.Arrays;
+
+/**
+ * The finger tables of all the nodes of an overlay, stored in a compressed, flat form.
+ *
+ * Fingers are stored as indices of nodes in the {@link SortedRing}. Since the targets of the fingers of a node
+ * move clockwise as the finger index grows, equal fingers are always consecutive; each finger table is then
+ * stored as a sequence of runs of equal fingers, each with the target of its fingers and the index of its first
+ * finger. With n nodes and m bits, a finger table has about log2(n) runs instead of m entries.
+ *
+ * The runs of node i are found at positions {@code start(i)} (inclusive) to {@code end(i)} (exclusive) of the
+ * store, in ascending finger order; the first run always starts from finger 0, i.e. the node's successor.
+ */
+public final class FingerStore {
+
+    /**
+     * Number of fingers of each node.
+     */
+    private final int bits;
+    /**
+     * For each node, the position of its first run; the last element is the total number of runs.
+     */
+    private final int[] offsets;
+    /**
+     * For each run, the index of the node its fingers point to.
+     */
+    private final int[] targets;
+    /**
+     * For each run, the index of its first finger.
+     */
+    private final short[] firstFingers;
+
+    /**
+     * Constructor of the class. The arrays are not copied.
+     *
+     * @param bits Number of fingers of each node.
+     * @param offsets For each node, the position of its first run, followed by the total number of runs.
+     * @param targets For each run, the index of the node its fingers point to.
+     * @param firstFingers For each run, the index of its first finger.
+     */
+    FingerStore(int bits, int[] offsets, int[] targets, short[] firstFingers) {
+        this.bits = bits;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.firstFingers = firstFingers;
+    }
+
+    /**
+     * Gets the number of nodes whose finger tables are stored.
+     * @return the number of nodes.
+     */
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * Gets the number of fingers of each node.
+     * @return the number of fingers of each node.
+     */
+    public int getBits() {
+        return bits;
+    }
+
+    /**
+     * Gets the total number of runs, i.e. of distinct fingers.
+     * @return the total number of runs.
+     */
+    public int runs() {
+        return offsets[offsets.length - 1];
+    }
+
+    /**
+     * Gets the position of the first run of a node.
+     *
+     * @param node The index of the node.
+     * @return the position of its first run.
+     */
+    public int start(int node) {
+        return offsets[node];
+    }
+
+    /**
+     * Gets the position following the last run of a node.
+     *
+     * @param node The index of the node.
+     * @return the position following its last run.
+     */
+    public int end(int node) {
+        return offsets[node + 1];
+    }
+
+    /**
+     * Gets the node pointed to by the fingers of a run.
+     *
+     * @param run The position of the run.
+     * @return the index of the node pointed to by the run.
+     */
+    public int target(int run) {
+        return targets[run];
+    }
+
+    /**
+     * Gets the index of the first finger of a run.
+     *
+     * @param run The position of the run.
+     * @return the index of the first finger of the run.
+     */
+    public int firstFinger(int run) {
+        return firstFingers[run];
+    }
+
+    /**
+     * Gets a single finger of a node.
+     *
+     * @param node The index of the node.
+     * @param finger The index of the finger.
+     * @return the index of the node pointed to by the finger.
+     */
+    public int finger(int node, int finger) {
+        int r = offsets[node + 1] - 1;
+        while (firstFingers[r] > finger) {
+            r--;
+        }
+        return targets[r];
+    }
+
+    /**
+     * Creates the store of the overlay obtained by adding a node: the indices of the nodes that follow the new
+     * one, and those of the fingers pointing to them, grow by one. Only the finger tables of the nodes whose
+     * fingers change are compressed again; the runs of all the other nodes are copied in bulk, only
+     * renumbering their targets.
+     *
+     * @param node The index of the new node in the new ring.
+     * @param newFingers The fingers of the new node, referring to the nodes by their index in the new ring.
+     * @param changes The fingers of the existing nodes that now point to the new node, each packed as
+     *                {@code ((long) node << 16) | finger}, with the node's index in this store, sorted in
+     *                ascending order.
+     * @param changeCount The number of elements of {@code changes}.
+     * @return the new store.
+     */
+    FingerStore withJoin(int node, int[] newFingers, long[] changes, int changeCount) {
+        int oldSize = size();
+        // Compress the new finger tables of the nodes whose fingers change
+        int[] changed = new int[changeCount];
+        int[] changedOffsets = new int[changeCount + 1];
+        int[] changedTargets = new int[changeCount * bits + bits];
+        short[] changedFirstFingers = new short[changedTargets.length];
+        int[] scratch = new int[bits];
+        int changedCount = 0, changedRuns = 0, oldRuns = 0;
+        for (int c = 0; c < changeCount; changedCount++) {
+            int j = (int) (changes[c] >>> 16);
+            for (int r = offsets[j]; r < offsets[j + 1]; r++) {
+                int last = (r + 1 < offsets[j + 1]) ? firstFingers[r + 1] : bits;
+                int target = (targets[r] >= node) ? targets[r] + 1 : targets[r];
+                for (int f = firstFingers[r]; f < last; f++) {
+                    scratch[f] = target;
+                }
+            }
+            for (; c < changeCount && (int) (changes[c] >>> 16) == j; c++) {
+                scratch[(int) (changes[c] & 0xFFFF)] = node;
+            }
+            changed[changedCount] = j;
+            changedOffsets[changedCount] = changedRuns;
+            changedRuns = appendRuns(scratch, changedTargets, changedFirstFingers, changedRuns);
+            oldRuns += offsets[j + 1] - offsets[j];
+        }
+        changedOffsets[changedCount] = changedRuns;
+        int newRuns = appendRuns(newFingers, scratch, new short[bits], 0);
+
+        int[] newOffsets = new int[oldSize + 2];
+        int[] newTargets = new int[runs() + newRuns + changedRuns - oldRuns];
+        short[] newFirstFingers = new short[newTargets.length];
+        int pos = 0, j = 0, k = 0, next = 0;
+        boolean inserted = false;
+        while (true) {
+            int stop = (next < changedCount) ? changed[next] : oldSize;
+            if (!inserted) {
+                stop = Math.min(stop, node);
+            }
+            pos = copyRuns(j, stop, node, newOffsets, k, newTargets, newFirstFingers, pos);
+            k += stop - j;
+            j = stop;
+            if (!inserted && j == node) {
+                newOffsets[k++] = pos;
+                pos = appendRuns(newFingers, newTargets, newFirstFingers, pos);
+                inserted = true;
+            } else if (j == oldSize) {
+                break;
+            } else {
+                // The next node whose fingers change
+                int from = changedOffsets[next], count = changedOffsets[next + 1] - from;
+                newOffsets[k++] = pos;
+                System.arraycopy(changedTargets, from, newTargets, pos, count);
+                System.arraycopy(changedFirstFingers, from, newFirstFingers, pos, count);
+                pos += count;
+                next++;
+                j++;
+            }
+        }
+        newOffsets[oldSize + 1] = pos;
+        return new FingerStore(bits, newOffsets, newTargets, newFirstFingers);
+    }
+
+    /**
+     * Copies the runs of a range of nodes into the arrays of a new store, after a node has been added.
+     *
+     * @param from The index of the first node (inclusive), in this store.
+     * @param to The index of the last node (exclusive), in this store.
+     * @param node The index of the added node.
+     * @param newOffsets The offsets of the new store.
+     * @param k The index of the first node in the new store.
+     * @param newTargets The targets of the new store.
+     * @param newFirstFingers The first fingers of the new store.
+     * @param pos The position of the first copied run in the new store.
+     * @return the position following the last copied run in the new store.
+     */
+    private int copyRuns(int from, int to, int node, int[] newOffsets, int k, int[] newTargets,
+                         short[] newFirstFingers, int pos) {
+        int first = offsets[from], last = offsets[to], delta = pos - first;
+        for (int j = from; j < to; j++) {
+            newOffsets[k + j - from] = offsets[j] + delta;
+        }
+        System.arraycopy(firstFingers, first, newFirstFingers, pos, last - first);
+        for (int r = first; r < last; r++) {
+            int t = targets[r];
+            newTargets[r + delta] = (t >= node) ? t + 1 : t;
+        }
+        return pos + last - first;
+    }
+
+    /**
+     * Creates the store of the overlay obtained by removing a node: the fingers that pointed to it now point to
+     * its successor, and the indices of the nodes that follow it, and those of the fingers pointing to them,
+     * decrease by one. Since the fingers of a node move clockwise, a run that pointed to the removed node is
+     * followed by those pointing to its successor, if any, and gets merged with them.
+     *
+     * @param node The index of the removed node.
+     * @return the new store.
+     */
+    FingerStore withLeave(int node) {
+        int oldSize = size(), total = runs();
+        int oldSuccessor = (node + 1 == oldSize) ? 0 : node + 1;
+        int successor = (node + 1 == oldSize) ? 0 : node;
+        int merges = 0;
+        for (int r = 0; r < total; r++) {
+            // A node's first run always starts from finger 0, so a run is followed by one of the same node
+            // if the latter doesn't
+            if (targets[r] == node && r + 1 < total && firstFingers[r + 1] != 0 && targets[r + 1] == oldSuccessor
+                    && (r < offsets[node] || r >= offsets[node + 1])) {
+                merges++;
+            }
+        }
+        int[] newOffsets = new int[oldSize];
+        int[] newTargets = new int[total - (offsets[node + 1] - offsets[node]) - merges];
+        short[] newFirstFingers = new short[newTargets.length];
+        int pos = 0;
+        for (int j = 0, k = 0; j < oldSize; j++) {
+            if (j == node) {
+                continue;
+            }
+            newOffsets[k++] = pos;
+            for (int r = offsets[j], end = offsets[j + 1]; r < end; r++) {
+                int t = targets[r];
+                newFirstFingers[pos] = firstFingers[r];
+                if (t == node) {
+                    newTargets[pos++] = successor;
+                    if (r + 1 < end && targets[r + 1] == oldSuccessor) {
+                        // Merged with the next run
+                        r++;
+                    }
+                } else {
+                    newTargets[pos++] = (t > node) ? t - 1 : t;
+                }
+            }
+        }
+        newOffsets[oldSize - 1] = pos;
+        return new FingerStore(bits, newOffsets, newTargets, newFirstFingers);
+    }
+
+    /**
+     * Compresses a finger table into runs, appending them to a store's arrays.
+     *
+     * @param fingers The fingers of the node.
+     * @param t The targets of the runs.
+     * @param f The first fingers of the runs.
+     * @param pos The position of the first run to be appended.
+     * @return the position following the last appended run.
+     */
+    private int appendRuns(int[] fingers, int[] t, short[] f, int pos) {
+        for (int i = 0; i < bits; i++) {
+            if (i == 0 || fingers[i] != fingers[i - 1]) {
+                t[pos] = fingers[i];
+                f[pos] = (short) i;
+                pos++;
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Collects the finger tables of the nodes into a {@link FingerStore}.
+     *
+     * The nodes are split into segments, each covering a range of consecutive nodes, and each segment gets
+     * its own buffers, so that the segments can be filled concurrently as long as each is filled by a single
+     * thread, in ascending node order.
+     */
+    public static final class Builder {
+
+        /**
+         * Number of fingers of each node.
+         */
+        private final int bits;
+        /**
+         * For each node, the number of its runs.
+         */
+        private final int[] counts;
+        /**
+         * For each segment, the targets of its runs.
+         */
+        private final int[][] segmentTargets;
+        /**
+         * For each segment, the first fingers of its runs.
+         */
+        private final short[][] segmentFirstFingers;
+        /**
+         * For each segment, the number of runs stored so far.
+         */
+        private final int[] segmentSizes;
+
+        /**
+         * Constructor of the class.
+         *
+         * @param nodes Number of nodes.
+         * @param bits Number of fingers of each node.
+         * @param segments Number of segments.
+         */
+        public Builder(int nodes, int bits, int segments) {
+            this.bits = bits;
+            this.counts = new int[nodes];
+            this.segmentTargets = new int[segments][];
+            this.segmentFirstFingers = new short[segments][];
+            this.segmentSizes = new int[segments];
+            for (int s = 0; s < segments; s++) {
+                segmentTargets[s] = new int[64];
+                segmentFirstFingers[s] = new short[64];
+            }
+        }
+
+        /**
+         * Adds the finger table of a node, compressing it into runs.
+         *
+         * @param segment The segment the node belongs to.
+         * @param node The index of the node.
+         * @param fingers The fingers of the node (the indices of the nodes they point to).
+         */
+        public void add(int segment, int node, int[] fingers) {
+            int size = segmentSizes[segment];
+            int[] t = segmentTargets[segment];
+            short[] f = segmentFirstFingers[segment];
+            int runs = 0;
+            for (int i = 0; i < bits; i++) {
+                if (i == 0 || fingers[i] != fingers[i - 1]) {
+                    if (size == t.length) {
+                        t = segmentTargets[segment] = Arrays.copyOf(t, size * 2);
+                        f = segmentFirstFingers[segment] = Arrays.copyOf(f, size * 2);
+                    }
+                    t[size] = fingers[i];
+                    f[size] = (short) i;
+                    size++;
+                    runs++;
+                }
+            }
+            segmentSizes[segment] = size;
+            counts[node] = runs;
+        }
+
+        /**
+         * Builds the store. The segments are concatenated in order, so segment s must hold nodes that come
+         * before the ones of segment s + 1.
+         *
+         * @return the {@link FingerStore} holding all the finger tables added so far.
+         */
+        public FingerStore build() {
+            int[] offsets = new int[counts.length + 1];
+            for (int i = 0; i < counts.length; i++) {
+                offsets[i + 1] = offsets[i] + counts[i];
+            }
+            int total = offsets[counts.length];
+            int[] targets = new int[total];
+            short[] firstFingers = new short[total];
+            int pos = 0;
+            for (int s = 0; s < segmentSizes.length; s++) {
+                System.arraycopy(segmentTargets[s], 0, targets, pos, segmentSizes[s]);
+                System.arraycopy(segmentFirstFingers[s], 0, firstFingers, pos, segmentSizes[s]);
+                pos += segmentSizes[s];
+                segmentTargets[s] = null;
+                segmentFirstFingers[s] = null;
+            }
+            return new FingerStore(bits, offsets, targets, firstFingers);
+        }
+    }
+}
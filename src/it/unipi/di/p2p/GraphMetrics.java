@@ -0,0 +1,379 @@
+package it.unipi.di.p2p;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Computes metrics of the finger graph of an overlay, i.e. the directed graph with an edge from every node to
+ * each of its distinct fingers (self-loops excluded), working directly on its {@link FingerStore}.
+ *
+ * Path lengths follow the direction of the edges; clustering coefficients are computed, as usual, on the
+ * undirected graph, where two nodes are neighbours if either is a finger of the other.
+ */
+public final class GraphMetrics {
+
+    /**
+     * Number of sources explored together by a breadth-first search, one per bit of a long.
+     */
+    private static final int BATCH = 64;
+    /**
+     * Number of nodes handled by each task of the triangle count.
+     */
+    private static final int CHUNK = 1024;
+    /**
+     * Number of bins of the histogram of the clustering coefficients, each covering an interval of the same
+     * width between 0 and 1.
+     */
+    public static final int CLUSTERING_BINS = 20;
+
+    /**
+     * The finger tables of the overlay.
+     */
+    private final FingerStore fingers;
+    /**
+     * Number of nodes of the overlay.
+     */
+    private final int size;
+
+    /**
+     * The lengths of the shortest paths from a set of source nodes to all the other nodes.
+     */
+    public static final class PathLengths {
+        /**
+         * Number of source nodes.
+         */
+        private final int sources;
+        /**
+         * Number of (source, destination) pairs with a path from the source to the destination.
+         */
+        private final long pairs;
+        /**
+         * Sum of the lengths of the shortest paths between the pairs.
+         */
+        private final long lengthSum;
+        /**
+         * The longest of the shortest paths between the pairs.
+         */
+        private final int longest;
+
+        /**
+         * Constructor of the class.
+         *
+         * @param sources Number of source nodes.
+         * @param pairs Number of connected (source, destination) pairs.
+         * @param lengthSum Sum of the lengths of the shortest paths between the pairs.
+         * @param longest The longest of the shortest paths between the pairs.
+         */
+        PathLengths(int sources, long pairs, long lengthSum, int longest) {
+            this.sources = sources;
+            this.pairs = pairs;
+            this.lengthSum = lengthSum;
+            this.longest = longest;
+        }
+
+        /**
+         * Gets the number of source nodes.
+         * @return the number of source nodes.
+         */
+        public int getSources() {
+            return sources;
+        }
+
+        /**
+         * Gets the number of (source, destination) pairs connected by a path.
+         * @return the number of connected pairs.
+         */
+        public long getPairs() {
+            return pairs;
+        }
+
+        /**
+         * Gets the longest of the shortest paths from the sources: the diameter of the graph if all its
+         * nodes were sources, a lower bound of it otherwise.
+         * @return the longest shortest path, in hops.
+         */
+        public int getDiameter() {
+            return longest;
+        }
+
+        /**
+         * Gets the average length of the shortest paths from the sources.
+         * @return the average shortest path length, in hops.
+         */
+        public double getAverage() {
+            return (pairs > 0) ? ((double) lengthSum) / pairs : 0.0;
+        }
+    }
+
+    /**
+     * The local clustering coefficients of the nodes, summarized by their average and their histogram.
+     */
+    public static final class Clustering {
+        /**
+         * The average local clustering coefficient.
+         */
+        private final double average;
+        /**
+         * Number of nodes whose coefficient falls in each bin.
+         */
+        private final long[] histogram;
+
+        /**
+         * Constructor of the class.
+         *
+         * @param average The average local clustering coefficient.
+         * @param histogram Number of nodes whose coefficient falls in each bin.
+         */
+        Clustering(double average, long[] histogram) {
+            this.average = average;
+            this.histogram = histogram;
+        }
+
+        /**
+         * Gets the average local clustering coefficient of the nodes.
+         * @return the average local clustering coefficient.
+         */
+        public double getAverage() {
+            return average;
+        }
+
+        /**
+         * Gets the histogram of the local clustering coefficients: bin i counts the nodes whose coefficient is
+         * in {@code [i / CLUSTERING_BINS, (i + 1) / CLUSTERING_BINS)}, and the last bin also counts the nodes
+         * whose coefficient is 1.
+         * @return the number of nodes in each bin.
+         */
+        public long[] getHistogram() {
+            return histogram;
+        }
+    }
+
+    /**
+     * Constructor of the class.
+     *
+     * @param fingers The finger tables of the overlay.
+     */
+    public GraphMetrics(FingerStore fingers) {
+        this.fingers = fingers;
+        this.size = fingers.size();
+    }
+
+    /**
+     * Computes the lengths of the shortest paths from a set of sources to all the nodes.
+     *
+     * The sources are explored by a multi-source breadth-first search: batches of 64 sources are explored
+     * together, each node keeping one bit per source of the batch in a long for the sources that have reached
+     * it and one for those that reached it at the previous level, so that a single pass over the edges of the
+     * frontier advances all the searches of the batch by one level. The batches are spread over a pool, each
+     * worker with its own bitsets; since the results are sums and maxima, they do not depend on the number of
+     * threads.
+     *
+     * @param sources The indices of the source nodes, with no duplicates.
+     * @param pool The pool used to run the searches, or null to run them in the current thread.
+     * @return the lengths of the shortest paths.
+     */
+    public PathLengths shortestPaths(int[] sources, ForkJoinPool pool) {
+        int batches = (sources.length + BATCH - 1) / BATCH;
+        int workers = (pool == null) ? 1 : Math.max(1, Math.min(pool.getParallelism(), batches));
+        long[] pairs = new long[workers], sums = new long[workers];
+        int[] longest = new int[workers];
+        Coordinator.runTasks(pool, workers, w -> {
+            long[] seen = new long[size], frontier = new long[size], next = new long[size];
+            long[] result = new long[3];
+            for (int b = (int) ((long) batches * w / workers); b < (int) ((long) batches * (w + 1) / workers); b++) {
+                search(sources, b * BATCH, Math.min(sources.length, (b + 1) * BATCH), seen, frontier, next, result);
+            }
+            pairs[w] = result[0];
+            sums[w] = result[1];
+            longest[w] = (int) result[2];
+        });
+        long totalPairs = 0, totalSum = 0;
+        int diameter = 0;
+        for (int w = 0; w < workers; w++) {
+            totalPairs += pairs[w];
+            totalSum += sums[w];
+            diameter = Math.max(diameter, longest[w]);
+        }
+        return new PathLengths(sources.length, totalPairs, totalSum, diameter);
+    }
+
+    /**
+     * Runs a breadth-first search from a batch of at most 64 sources.
+     *
+     * @param sources The indices of the source nodes.
+     * @param from The position of the first source of the batch (inclusive).
+     * @param to The position of the last source of the batch (exclusive).
+     * @param seen Scratch space: for each node, the sources that reached it; all zeros on return.
+     * @param frontier Scratch space: for each node, the sources that reached it at the last level; all zeros
+     *                 on return.
+     * @param next Scratch space: for each node, the sources reaching it at the current level; all zeros on
+     *             return.
+     * @param result The number of connected pairs, the sum of their distances and the longest distance,
+     *               which get updated with the results of the batch.
+     */
+    private void search(int[] sources, int from, int to, long[] seen, long[] frontier, long[] next, long[] result) {
+        for (int s = from; s < to; s++) {
+            long bit = 1L << (s - from);
+            seen[sources[s]] |= bit;
+            frontier[sources[s]] |= bit;
+        }
+        boolean active = true;
+        for (int level = 1; active; level++) {
+            for (int u = 0; u < size; u++) {
+                long f = frontier[u];
+                if (f != 0) {
+                    for (int r = fingers.start(u); r < fingers.end(u); r++) {
+                        next[fingers.target(r)] |= f;
+                    }
+                }
+            }
+            active = false;
+            for (int v = 0; v < size; v++) {
+                long reached = next[v] & ~seen[v];
+                next[v] = 0;
+                frontier[v] = reached;
+                if (reached != 0) {
+                    seen[v] |= reached;
+                    int count = Long.bitCount(reached);
+                    result[0] += count;
+                    result[1] += (long) count * level;
+                    result[2] = Math.max(result[2], level);
+                    active = true;
+                }
+            }
+        }
+        for (int v = 0; v < size; v++) {
+            seen[v] = 0;
+        }
+    }
+
+    /**
+     * Computes the distribution of the in-degrees of the nodes, i.e. of the number of distinct nodes having
+     * each node as a finger.
+     *
+     * @return an array whose element d holds the number of nodes with in-degree d.
+     */
+    public long[] inDegreeDistribution() {
+        int[] inDegrees = new int[size];
+        int max = 0;
+        for (int u = 0; u < size; u++) {
+            for (int r = fingers.start(u); r < fingers.end(u); r++) {
+                int v = fingers.target(r);
+                if (v != u) {
+                    max = Math.max(max, ++inDegrees[v]);
+                }
+            }
+        }
+        long[] distribution = new long[max + 1];
+        for (int d : inDegrees) {
+            distribution[d]++;
+        }
+        return distribution;
+    }
+
+    /**
+     * Computes the local clustering coefficients of the nodes: the fraction of the pairs of neighbours of a
+     * node that are neighbours themselves, or zero for nodes with fewer than two neighbours.
+     *
+     * Each undirected edge is stored once, in the sorted and deduplicated list of the lower of its endpoints,
+     * which takes about as much memory as the finger tables themselves. Every triangle u &lt; v &lt; w is then
+     * found exactly once, by intersecting the lists of u and v, and credited to its three nodes. Chunks of nodes
+     * are handed out dynamically to the workers of the pool, each with its own triangle counters, which are
+     * summed at the end, so the result does not depend on the number of threads.
+     *
+     * @param pool The pool used to count the triangles, or null to count them in the current thread.
+     * @return the clustering coefficients.
+     */
+    public Clustering clustering(ForkJoinPool pool) {
+        // Adjacency lists of the upper neighbours of each node
+        int[] offsets = new int[size + 1];
+        for (int u = 0; u < size; u++) {
+            for (int r = fingers.start(u); r < fingers.end(u); r++) {
+                int v = fingers.target(r);
+                if (v != u) {
+                    offsets[Math.min(u, v) + 1]++;
+                }
+            }
+        }
+        for (int u = 0; u < size; u++) {
+            offsets[u + 1] += offsets[u];
+        }
+        int[] upper = new int[offsets[size]];
+        int[] fill = Arrays.copyOf(offsets, size);
+        for (int u = 0; u < size; u++) {
+            for (int r = fingers.start(u); r < fingers.end(u); r++) {
+                int v = fingers.target(r);
+                if (v != u) {
+                    upper[fill[Math.min(u, v)]++] = Math.max(u, v);
+                }
+            }
+        }
+        int chunks = (size + CHUNK - 1) / CHUNK;
+        Coordinator.runTasks(pool, chunks, c -> {
+            for (int u = c * CHUNK; u < Math.min(size, (c + 1) * CHUNK); u++) {
+                Arrays.sort(upper, offsets[u], offsets[u + 1]);
+            }
+        });
+        // Drop the edges found in both directions, compacting the lists
+        int[] ends = new int[size];
+        int[] degrees = new int[size];
+        int pos = 0;
+        for (int u = 0; u < size; u++) {
+            int from = offsets[u], to = offsets[u + 1];
+            offsets[u] = pos;
+            for (int i = from; i < to; i++) {
+                if (i == from || upper[i] != upper[i - 1]) {
+                    upper[pos++] = upper[i];
+                    degrees[u]++;
+                    degrees[upper[i]]++;
+                }
+            }
+            ends[u] = pos;
+        }
+
+        int workers = (pool == null) ? 1 : Math.max(1, Math.min(pool.getParallelism(), chunks));
+        int[][] triangles = new int[workers][];
+        AtomicInteger nextChunk = new AtomicInteger();
+        Coordinator.runTasks(pool, workers, w -> {
+            int[] t = new int[size];
+            for (int c = nextChunk.getAndIncrement(); c < chunks; c = nextChunk.getAndIncrement()) {
+                for (int u = c * CHUNK; u < Math.min(size, (c + 1) * CHUNK); u++) {
+                    for (int i = offsets[u]; i < ends[u]; i++) {
+                        int v = upper[i];
+                        // Common upper neighbours of u and v, all greater than v
+                        int a = i + 1, b = offsets[v];
+                        while (a < ends[u] && b < ends[v]) {
+                            if (upper[a] < upper[b]) {
+                                a++;
+                            } else if (upper[a] > upper[b]) {
+                                b++;
+                            } else {
+                                t[u]++;
+                                t[v]++;
+                                t[upper[a]]++;
+                                a++;
+                                b++;
+                            }
+                        }
+                    }
+                }
+            }
+            triangles[w] = t;
+        });
+
+        long[] histogram = new long[CLUSTERING_BINS];
+        double sum = 0.0;
+        for (int u = 0; u < size; u++) {
+            long t = 0;
+            for (int[] counts : triangles) {
+                t += counts[u];
+            }
+            long d = degrees[u];
+            double coefficient = (d < 2) ? 0.0 : 2.0 * t / (d * (d - 1));
+            sum += coefficient;
+            histogram[Math.min(CLUSTERING_BINS - 1, (int) (coefficient * CLUSTERING_BINS))]++;
+        }
+        return new Clustering(size > 0 ? sum / size : 0.0, histogram);
+    }
+}
@@ -0,0 +1,84 @@
+package it.unipi.di.p2p;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The algorithms that can be used to hash node addresses and search keys into identifiers.
+ */
+public enum HashAlgorithm {
+    /**
+     * SHA-1, as in Chord's specification paper.
+     */
+    SHA1("SHA-1", 160),
+    /**
+     * SHA-256.
+     */
+    SHA256("SHA-256", 256),
+    /**
+     * SHA-512, the default one.
+     */
+    SHA512("SHA-512", 512),
+    /**
+     * A fast, non-cryptographic hash (see {@link IdHasher.Fast}). It fills identifiers of any size, but
+     * every identifier is derived from a 64-bit state, so identifiers wider than 64 bits still carry only
+     * 64 bits of entropy.
+     */
+    FAST(null, Integer.MAX_VALUE);
+
+    /**
+     * The name of the {@link MessageDigest} algorithm, or null for non-cryptographic hashes.
+     */
+    private final String digestName;
+    /**
+     * The largest identifier size the algorithm can fill, in bits, i.e. the size of its digest.
+     */
+    private final int maxBits;
+
+    /**
+     * Constructor of the enum.
+     *
+     * @param digestName The name of the {@link MessageDigest} algorithm, or null.
+     * @param maxBits The largest identifier size the algorithm can fill, in bits.
+     */
+    HashAlgorithm(String digestName, int maxBits) {
+        this.digestName = digestName;
+        this.maxBits = maxBits;
+    }
+
+    /**
+     * Gets the largest identifier size the algorithm can fill: the digests are truncated to the size of the
+     * identifiers, so larger identifiers would have their most significant bits always set to zero.
+     *
+     * @return the size of the algorithm's digest, in bits, or {@link Integer#MAX_VALUE} if it has no limit
+     * (which doesn't mean that larger identifiers have more entropy, see {@link #FAST}).
+     */
+    public int getMaxBits() {
+        return maxBits;
+    }
+
+    /**
+     * Creates a new hasher that uses this algorithm.
+     *
+     * @param space The identifier space of the identifiers.
+     * @return a new {@link IdHasher}.
+     * @throws NoSuchAlgorithmException If the current JVM doesn't support this algorithm.
+     */
+    public IdHasher newHasher(IdSpace space) throws NoSuchAlgorithmException {
+        if (digestName == null) {
+            return new IdHasher.Fast(space);
+        }
+        return new IdHasher.Digest(space, MessageDigest.getInstance(digestName));
+    }
+
+    /**
+     * Gets an algorithm by name, ignoring case and dashes (e.g. "sha-1", "SHA1" or "fast").
+     *
+     * @param name The name of the algorithm.
+     * @return the algorithm with that name.
+     * @throws IllegalArgumentException If there is no algorithm with that name.
+     */
+    public static HashAlgorithm fromName(String name) {
+        return valueOf(name.replace("-", "").toUpperCase());
+    }
+}
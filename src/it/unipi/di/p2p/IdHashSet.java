@@ -0,0 +1,98 @@
+package it.unipi.di.p2p;
+
+import java.util.Arrays;
+
+/**
+ * A set of identifiers stored in a flat array of limbs (see {@link IdSpace}), which refers to each
+ * identifier by its position in the array instead of copying it.
+ *
+ * The set uses open addressing with linear probing on a primitive array of positions, so adding an
+ * identifier neither wraps it into a {@link RingId} nor allocates an entry. The identifiers must not
+ * change while they are in the set.
+ */
+public final class IdHashSet {
+
+    /**
+     * Marker of the empty slots.
+     */
+    private static final int EMPTY = -1;
+
+    /**
+     * The identifier space of the identifiers.
+     */
+    private final IdSpace space;
+    /**
+     * The identifiers, one after the other.
+     */
+    private final long[] ids;
+    /**
+     * The slots of the table, holding the positions of the identifiers; its length is a power of two.
+     */
+    private final int[] table;
+    /**
+     * Number of identifiers in the set.
+     */
+    private int size;
+
+    /**
+     * Constructor of the class.
+     *
+     * @param space The identifier space of the identifiers.
+     * @param ids The identifiers, one after the other.
+     * @param capacity The maximum number of identifiers the set will hold.
+     */
+    public IdHashSet(IdSpace space, long[] ids, int capacity) {
+        this.space = space;
+        this.ids = ids;
+        this.table = new int[Integer.highestOneBit(Math.max(4, capacity * 2 - 1)) << 1];
+        Arrays.fill(table, EMPTY);
+    }
+
+    /**
+     * Gets the number of identifiers in the set.
+     * @return the number of identifiers in the set.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds an identifier to the set, unless an equal one is already there.
+     *
+     * @param position The position of the identifier in the array (the identifier starts at offset
+     *                 {@code position * limbs}).
+     * @return true if the identifier was added, false if an equal one was already in the set.
+     */
+    public boolean add(int position) {
+        int limbs = space.getLimbs();
+        int mask = table.length - 1;
+        int i = slot(position * limbs, mask);
+        for (int p = table[i]; p != EMPTY; p = table[i]) {
+            if (space.compare(ids, p * limbs, ids, position * limbs) == 0) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        if ((size + 1) * 2 > table.length) {
+            throw new IllegalStateException("Set is full");
+        }
+        table[i] = position;
+        size++;
+        return true;
+    }
+
+    /**
+     * Computes the home slot of an identifier.
+     *
+     * @param off The offset of the identifier.
+     * @param mask The number of slots minus one.
+     * @return the home slot of the identifier.
+     */
+    private int slot(int off, int mask) {
+        long h = 0;
+        for (int k = 0; k < space.getLimbs(); k++) {
+            h = h * 31 + ids[off + k];
+        }
+        return LongHashSet.slot(h, mask);
+    }
+}
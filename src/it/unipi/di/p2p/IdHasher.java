@@ -0,0 +1,172 @@
+package it.unipi.di.p2p;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hashes byte sequences into identifiers of a ring, writing them straight into arrays of limbs
+ * (see {@link IdSpace}).
+ *
+ * A hasher keeps reusable buffers, so it allocates no memory per input, but it must not be shared between
+ * threads: each thread gets its own {@link #copy()}.
+ */
+public abstract class IdHasher {
+
+    /**
+     * The identifier space of the identifiers.
+     */
+    protected final IdSpace space;
+
+    /**
+     * Constructor of the class.
+     *
+     * @param space The identifier space of the identifiers.
+     */
+    protected IdHasher(IdSpace space) {
+        this.space = space;
+    }
+
+    /**
+     * Gets the identifier space of the identifiers.
+     * @return the identifier space of the identifiers.
+     */
+    public IdSpace getSpace() {
+        return space;
+    }
+
+    /**
+     * Hashes a byte sequence into an identifier.
+     *
+     * @param input The array holding the bytes to be hashed.
+     * @param off The position of the first byte.
+     * @param len The number of bytes.
+     * @param dst The array where the identifier is stored.
+     * @param dstOff The offset of the identifier in its array.
+     */
+    public abstract void hash(byte[] input, int off, int len, long[] dst, int dstOff);
+
+    /**
+     * Creates an independent hasher of the same kind, to be used by another thread.
+     * @return a new {@link IdHasher}.
+     */
+    public abstract IdHasher copy();
+
+    /**
+     * A hasher based on a {@link MessageDigest}, whose digests are truncated to the size of the identifiers
+     * (see {@link Util#truncate(byte[], IdSpace, long[], int)}).
+     */
+    static final class Digest extends IdHasher {
+
+        /**
+         * The digest.
+         */
+        private final MessageDigest md;
+        /**
+         * Buffer holding the last digest.
+         */
+        private final byte[] digest;
+
+        /**
+         * Constructor of the class.
+         *
+         * @param space The identifier space of the identifiers.
+         * @param md The digest, which is owned by the new hasher.
+         */
+        Digest(IdSpace space, MessageDigest md) {
+            super(space);
+            this.md = md;
+            this.digest = new byte[md.getDigestLength()];
+        }
+
+        @Override
+        public void hash(byte[] input, int off, int len, long[] dst, int dstOff) {
+            md.update(input, off, len);
+            try {
+                md.digest(digest, 0, digest.length);
+            } catch (DigestException e) {
+                // Should never occur, since the buffer is as long as the digest
+                throw new AssertionError(e);
+            }
+            Util.truncate(digest, space, dst, dstOff);
+        }
+
+        @Override
+        public IdHasher copy() {
+            try {
+                return new Digest(space, (MessageDigest) md.clone());
+            } catch (CloneNotSupportedException e) {
+                try {
+                    return new Digest(space, MessageDigest.getInstance(md.getAlgorithm()));
+                } catch (NoSuchAlgorithmException ex) {
+                    // Should never occur, since the algorithm was available when this hasher was built
+                    throw new AssertionError(ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * A fast, non-cryptographic hasher for large-scale experiments.
+     *
+     * The input is folded 8 bytes at a time into a 64-bit state with a multiply-and-rotate step, and the
+     * state is then expanded into as many limbs as needed with the SplitMix64 finalizer. Identifiers are
+     * spread evenly over the ring, but, unlike with a digest, they can be easily inverted or forged, and
+     * those wider than 64 bits have no more than 64 bits of entropy, as all their limbs come from the state.
+     */
+    static final class Fast extends IdHasher {
+
+        /**
+         * The 64-bit golden ratio, used to derive the limbs from the state.
+         */
+        private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+        /**
+         * Constructor of the class.
+         *
+         * @param space The identifier space of the identifiers.
+         */
+        Fast(IdSpace space) {
+            super(space);
+        }
+
+        @Override
+        public void hash(byte[] input, int off, int len, long[] dst, int dstOff) {
+            long h = len * GOLDEN;
+            int i = off, end = off + len;
+            for (; i + 8 <= end; i += 8) {
+                long word = (input[i] & 0xFFL) | (input[i + 1] & 0xFFL) << 8 | (input[i + 2] & 0xFFL) << 16
+                        | (input[i + 3] & 0xFFL) << 24 | (input[i + 4] & 0xFFL) << 32 | (input[i + 5] & 0xFFL) << 40
+                        | (input[i + 6] & 0xFFL) << 48 | (input[i + 7] & 0xFFL) << 56;
+                h = Long.rotateLeft((h ^ word) * 0xC2B2AE3D27D4EB4FL, 31) * GOLDEN;
+            }
+            long tail = 0;
+            for (int shift = 0; i < end; i++, shift += 8) {
+                tail |= (input[i] & 0xFFL) << shift;
+            }
+            h = Long.rotateLeft((h ^ tail) * 0xC2B2AE3D27D4EB4FL, 31) * GOLDEN;
+            int limbs = space.getLimbs();
+            for (int k = 0; k < limbs; k++) {
+                dst[dstOff + k] = mix(h + (k + 1) * GOLDEN);
+            }
+            dst[dstOff] &= space.getTopMask();
+        }
+
+        /**
+         * The SplitMix64 finalizer.
+         *
+         * @param z The value to be mixed.
+         * @return the mixed value.
+         */
+        private static long mix(long z) {
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+
+        @Override
+        public IdHasher copy() {
+            return new Fast(space);
+        }
+    }
+}
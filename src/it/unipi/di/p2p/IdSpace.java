@@ -0,0 +1,270 @@
+package it.unipi.di.p2p;
+
+import java.math.BigInteger;
+
+/**
+ * The identifier space of a Chord ring, i.e. the integers modulo 2^bits.
+ *
+ * Identifiers are stored as fixed-width arrays of 64-bit limbs in big-endian order: limb 0 is the most
+ * significant one and only holds the topmost {@code bits % 64} bits (or a full limb, if bits is a multiple
+ * of 64). All the arithmetic methods work on limb arrays at a given offset, so that they can be used both
+ * on single {@link RingId}s and on flat arrays storing many identifiers one after the other; none of them
+ * allocate any memory. Rings of up to 64 bits use a single limb and take a dedicated fast path.
+ */
+public final class IdSpace {
+
+    /**
+     * Number of bits to represent the identifiers.
+     */
+    private final int bits;
+    /**
+     * Number of 64-bit limbs used by each identifier.
+     */
+    private final int limbs;
+    /**
+     * Mask of the valid bits of the most significant limb.
+     */
+    private final long topMask;
+    /**
+     * The point where the ring wraps around, i.e. 2^bits.
+     */
+    private final BigInteger wrapPoint;
+
+    /**
+     * Constructor of the class.
+     *
+     * @param bits Number of bits to represent the identifiers (between 1 and 512).
+     */
+    public IdSpace(int bits) {
+        if (bits < 1 || bits > 512) {
+            throw new IllegalArgumentException("Identifier size must be between 1 and 512 bits");
+        }
+        this.bits = bits;
+        this.limbs = (bits + 63) >>> 6;
+        int topBits = bits - ((limbs - 1) << 6);
+        this.topMask = (topBits == 64) ? -1L : (1L << topBits) - 1;
+        this.wrapPoint = BigInteger.ONE.shiftLeft(bits);
+    }
+
+    /**
+     * Gets the number of bits of the identifiers.
+     * @return the number of bits of the identifiers.
+     */
+    public int getBits() {
+        return bits;
+    }
+
+    /**
+     * Gets the number of limbs used by each identifier.
+     * @return the number of limbs used by each identifier.
+     */
+    public int getLimbs() {
+        return limbs;
+    }
+
+    /**
+     * Gets the mask of the valid bits of the most significant limb.
+     * @return the mask of the valid bits of the most significant limb.
+     */
+    public long getTopMask() {
+        return topMask;
+    }
+
+    /**
+     * Gets the size of the ring, 2^bits.
+     * @return a {@link BigInteger} equal to 2^bits.
+     */
+    public BigInteger getWrapPoint() {
+        return wrapPoint;
+    }
+
+    /**
+     * Compares two identifiers as unsigned integers.
+     *
+     * @param a The array holding the first identifier.
+     * @param aOff The offset of the first identifier in its array.
+     * @param b The array holding the second identifier.
+     * @param bOff The offset of the second identifier in its array.
+     * @return a negative number, zero or a positive number if the first identifier is respectively lower than,
+     * equal to or greater than the second one.
+     */
+    public int compare(long[] a, int aOff, long[] b, int bOff) {
+        if (limbs == 1) {
+            return Long.compareUnsigned(a[aOff], b[bOff]);
+        }
+        for (int k = 0; k < limbs; k++) {
+            long x = a[aOff + k], y = b[bOff + k];
+            if (x != y) {
+                return Long.compareUnsigned(x, y);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Computes {@code (src + 2^exp) mod 2^bits} and stores the result into {@code dst}.
+     *
+     * The source and the destination may be the same identifier.
+     *
+     * @param src The array holding the identifier to add to.
+     * @param srcOff The offset of the identifier in its array.
+     * @param exp The exponent of the power of two to be added (lower than bits).
+     * @param dst The array where the result is stored.
+     * @param dstOff The offset of the result in its array.
+     */
+    public void addPowerOfTwo(long[] src, int srcOff, int exp, long[] dst, int dstOff) {
+        if (limbs == 1) {
+            dst[dstOff] = (src[srcOff] + (1L << exp)) & topMask;
+            return;
+        }
+        int k = limbs - 1 - (exp >>> 6);
+        for (int j = limbs - 1; j > k; j--) {
+            dst[dstOff + j] = src[srcOff + j];
+        }
+        long carry = 1L << (exp & 63);
+        for (; k >= 0; k--) {
+            long x = src[srcOff + k];
+            long sum = x + carry;
+            dst[dstOff + k] = sum;
+            carry = (Long.compareUnsigned(sum, x) < 0) ? 1 : 0;
+        }
+        dst[dstOff] &= topMask;
+    }
+
+    /**
+     * Computes {@code (a - b) mod 2^bits}, i.e. the clockwise distance from b to a, and stores the result
+     * into {@code dst}.
+     *
+     * @param a The array holding the minuend.
+     * @param aOff The offset of the minuend in its array.
+     * @param b The array holding the subtrahend.
+     * @param bOff The offset of the subtrahend in its array.
+     * @param dst The array where the result is stored.
+     * @param dstOff The offset of the result in its array.
+     */
+    public void subtract(long[] a, int aOff, long[] b, int bOff, long[] dst, int dstOff) {
+        long borrow = 0;
+        for (int k = limbs - 1; k >= 0; k--) {
+            long x = a[aOff + k], y = b[bOff + k];
+            long diff = x - y - borrow;
+            borrow = (Long.compareUnsigned(x, y) < 0 || (borrow != 0 && x == y)) ? 1 : 0;
+            dst[dstOff + k] = diff;
+        }
+        dst[dstOff] &= topMask;
+    }
+
+    /**
+     * Checks whether an identifier is zero.
+     *
+     * @param a The array holding the identifier.
+     * @param aOff The offset of the identifier in its array.
+     * @return true if the identifier is zero.
+     */
+    public boolean isZero(long[] a, int aOff) {
+        for (int k = 0; k < limbs; k++) {
+            if (a[aOff + k] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Converts an identifier to a {@link BigInteger}.
+     *
+     * @param a The array holding the identifier.
+     * @param aOff The offset of the identifier in its array.
+     * @return a non-negative {@link BigInteger} with the same value.
+     */
+    public BigInteger toBigInteger(long[] a, int aOff) {
+        byte[] bytes = new byte[limbs * 8 + 1];
+        for (int k = 0; k < limbs; k++) {
+            long x = a[aOff + k];
+            for (int j = 0; j < 8; j++) {
+                bytes[1 + k * 8 + j] = (byte) (x >>> (56 - 8 * j));
+            }
+        }
+        return new BigInteger(bytes);
+    }
+
+    /**
+     * Stores the value of a {@link BigInteger}, reduced modulo 2^bits, into an identifier.
+     *
+     * @param value The value to be stored.
+     * @param dst The array where the identifier is stored.
+     * @param dstOff The offset of the identifier in its array.
+     */
+    public void fromBigInteger(BigInteger value, long[] dst, int dstOff) {
+        for (int k = limbs - 1; k >= 0; k--) {
+            dst[dstOff + k] = value.longValue();
+            value = value.shiftRight(64);
+        }
+        dst[dstOff] &= topMask;
+    }
+
+    /**
+     * Gets the number of significant bits of an identifier (zero for the zero identifier).
+     *
+     * @param a The array holding the identifier.
+     * @param aOff The offset of the identifier in its array.
+     * @return the number of significant bits of the identifier.
+     */
+    public int bitLength(long[] a, int aOff) {
+        for (int k = 0; k < limbs; k++) {
+            long x = a[aOff + k];
+            if (x != 0) {
+                return (limbs - k) * 64 - Long.numberOfLeadingZeros(x);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Converts an identifier into a minimal two's complement byte array, exactly as
+     * {@link BigInteger#toByteArray()} would do for the same (non-negative) value.
+     *
+     * @param a The array holding the identifier.
+     * @param aOff The offset of the identifier in its array.
+     * @return the byte representation of the identifier.
+     */
+    public byte[] toByteArray(long[] a, int aOff) {
+        int len = bitLength(a, aOff) / 8 + 1;
+        byte[] out = new byte[len];
+        for (int i = 0; i < len; i++) {
+            out[len - 1 - i] = byteAt(a, aOff, i);
+        }
+        return out;
+    }
+
+    /**
+     * Gets a single byte of an identifier.
+     *
+     * @param a The array holding the identifier.
+     * @param aOff The offset of the identifier in its array.
+     * @param index The index of the byte, starting from the least significant one.
+     * @return the requested byte, or zero if it lies past the end of the identifier.
+     */
+    byte byteAt(long[] a, int aOff, int index) {
+        int limb = limbs - 1 - (index >>> 3);
+        if (limb < 0) {
+            return 0;
+        }
+        return (byte) (a[aOff + limb] >>> ((index & 7) << 3));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (o == null || !(o instanceof IdSpace)) {
+            return false;
+        }
+        return ((IdSpace) o).bits == bits;
+    }
+
+    @Override
+    public int hashCode() {
+        return bits;
+    }
+}
@@ -0,0 +1,152 @@
+package it.unipi.di.p2p;
+
+import java.util.SplittableRandom;
+
+/**
+ * The latency of the links between the nodes of a simulated network, in microseconds.
+ *
+ * A message sent by a node to itself is delivered immediately.
+ */
+public abstract class LatencyModel {
+
+    /**
+     * Gets the latency of a message.
+     *
+     * @param from The index of the sender.
+     * @param to The index of the receiver.
+     * @param r The random stream of the simulation, for models whose latency varies from message to message.
+     * @return the latency of the message, in microseconds.
+     */
+    public abstract long latency(int from, int to, SplittableRandom r);
+
+    /**
+     * Creates a model where all the links have the same latency.
+     *
+     * @param micros The latency of every link, in microseconds, not negative.
+     * @return the model.
+     * @throws IllegalArgumentException If the latency is negative.
+     */
+    public static LatencyModel constant(long micros) {
+        if (micros < 0) {
+            throw new IllegalArgumentException("Negative latency: " + micros / 1000.0 + " ms");
+        }
+        return new LatencyModel() {
+            @Override
+            public long latency(int from, int to, SplittableRandom r) {
+                return (from == to) ? 0 : micros;
+            }
+
+            @Override
+            public String toString() {
+                return "const:" + micros / 1000.0;
+            }
+        };
+    }
+
+    /**
+     * Creates a model where the latency of each message is drawn uniformly at random.
+     *
+     * @param min The minimum latency, in microseconds, not negative.
+     * @param max The maximum latency, in microseconds, not lower than the minimum.
+     * @return the model.
+     * @throws IllegalArgumentException If the range of the latencies is not valid.
+     */
+    public static LatencyModel uniform(long min, long max) {
+        checkRange(min, max);
+        return new LatencyModel() {
+            @Override
+            public long latency(int from, int to, SplittableRandom r) {
+                return (from == to) ? 0 : r.nextLong(min, max + 1);
+            }
+
+            @Override
+            public String toString() {
+                return "uniform:" + min / 1000.0 + ":" + max / 1000.0;
+            }
+        };
+    }
+
+    /**
+     * Creates a model where each link has its own latency, fixed for the whole simulation and spread
+     * uniformly between two values; a link has the same latency in both directions. The latency of a link
+     * is derived from a seed and from its endpoints, so the model needs no memory.
+     *
+     * @param min The minimum latency, in microseconds, not negative.
+     * @param max The maximum latency, in microseconds, not lower than the minimum.
+     * @param seed The seed the latencies are derived from.
+     * @return the model.
+     * @throws IllegalArgumentException If the range of the latencies is not valid.
+     */
+    public static LatencyModel perLink(long min, long max, long seed) {
+        checkRange(min, max);
+        return new LatencyModel() {
+            @Override
+            public long latency(int from, int to, SplittableRandom r) {
+                if (from == to) {
+                    return 0;
+                }
+                long link = ((long) Math.min(from, to) << 32) | Math.max(from, to);
+                long h = seed ^ link * 0x9E3779B97F4A7C15L;
+                h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+                h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+                h ^= h >>> 33;
+                return min + Long.remainderUnsigned(h, max - min + 1);
+            }
+
+            @Override
+            public String toString() {
+                return "link:" + min / 1000.0 + ":" + max / 1000.0;
+            }
+        };
+    }
+
+    /**
+     * Checks the range of the latencies of a model.
+     *
+     * @param min The minimum latency, in microseconds.
+     * @param max The maximum latency, in microseconds.
+     * @throws IllegalArgumentException If the minimum is negative or greater than the maximum.
+     */
+    private static void checkRange(long min, long max) {
+        if (min < 0 || min > max) {
+            throw new IllegalArgumentException("Invalid latency range: " + min / 1000.0 + " to " + max / 1000.0
+                    + " ms");
+        }
+    }
+
+    /**
+     * Parses a model from its description: {@code const:MS}, {@code uniform:MIN:MAX} or {@code link:MIN:MAX},
+     * with the latencies in milliseconds.
+     *
+     * @param description The description of the model.
+     * @param seed The seed of the per-link latencies.
+     * @return the model.
+     * @throws IllegalArgumentException If the description is not valid, or if the latencies are negative or
+     * their range is reversed.
+     */
+    public static LatencyModel parse(String description, long seed) {
+        String[] parts = description.split(":");
+        try {
+            if (parts[0].equals("const") && parts.length == 2) {
+                return constant(micros(parts[1]));
+            } else if (parts[0].equals("uniform") && parts.length == 3) {
+                return uniform(micros(parts[1]), micros(parts[2]));
+            } else if (parts[0].equals("link") && parts.length == 3) {
+                return perLink(micros(parts[1]), micros(parts[2]), seed);
+            }
+        } catch (NumberFormatException e) {
+            // Falls through
+        }
+        throw new IllegalArgumentException("Unknown latency model: " + description);
+    }
+
+    /**
+     * Converts a number of milliseconds into microseconds.
+     *
+     * @param millis The number of milliseconds, possibly fractional.
+     * @return the number of microseconds.
+     */
+    private static long micros(String millis) {
+        return Math.round(Double.parseDouble(millis) * 1000);
+    }
+}
@@ -0,0 +1,134 @@
+package it.unipi.di.p2p;
+
+import java.util.Arrays;
+
+/**
+ * A set of non-negative longs, stored in a single primitive array with open addressing and linear probing,
+ * so that adding an element neither boxes it nor allocates an entry.
+ */
+public final class LongHashSet {
+
+    /**
+     * Marker of the empty slots.
+     */
+    private static final long EMPTY = -1L;
+
+    /**
+     * The slots of the table; its length is always a power of two.
+     */
+    private long[] table;
+    /**
+     * Number of elements in the set.
+     */
+    private int size;
+
+    /**
+     * Constructor of the class.
+     *
+     * @param expected The number of elements the set is expected to hold, so that it never needs to grow.
+     */
+    public LongHashSet(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+        table = newTable(capacity);
+    }
+
+    /**
+     * Gets the number of elements in the set.
+     * @return the number of elements in the set.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks whether an element is in the set.
+     *
+     * @param value The element, which must not be negative.
+     * @return true if the element is in the set.
+     */
+    public boolean contains(long value) {
+        int mask = table.length - 1;
+        for (int i = slot(value, mask); ; i = (i + 1) & mask) {
+            long v = table[i];
+            if (v == value) {
+                return true;
+            }
+            if (v == EMPTY) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Adds an element to the set.
+     *
+     * @param value The element, which must not be negative.
+     * @return true if the element was not already in the set.
+     */
+    public boolean add(long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative values can't be stored");
+        }
+        int mask = table.length - 1;
+        int i = slot(value, mask);
+        for (long v = table[i]; v != EMPTY; v = table[i]) {
+            if (v == value) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        table[i] = value;
+        // Keeps the load factor under one half
+        if (++size * 2 > table.length) {
+            rehash();
+        }
+        return true;
+    }
+
+    /**
+     * Doubles the size of the table.
+     */
+    private void rehash() {
+        long[] old = table;
+        table = newTable(old.length * 2);
+        int mask = table.length - 1;
+        for (long v: old) {
+            if (v != EMPTY) {
+                int i = slot(v, mask);
+                while (table[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                table[i] = v;
+            }
+        }
+    }
+
+    /**
+     * Creates an empty table.
+     *
+     * @param capacity The number of slots.
+     * @return the new table.
+     */
+    private static long[] newTable(int capacity) {
+        long[] t = new long[capacity];
+        Arrays.fill(t, EMPTY);
+        return t;
+    }
+
+    /**
+     * Computes the home slot of an element, scrambling its bits (with the finalizer of MurmurHash3)
+     * so that structured values, such as packed addresses, spread evenly over the table.
+     *
+     * @param value The element.
+     * @param mask The number of slots minus one.
+     * @return the home slot of the element.
+     */
+    static int slot(long value, int mask) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return (int) value & mask;
+    }
+}
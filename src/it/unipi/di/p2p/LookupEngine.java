@@ -0,0 +1,207 @@
+package it.unipi.di.p2p;
+
+import java.util.BitSet;
+
+/**
+ * Routes queries on a static overlay, working directly on its {@link SortedRing} and {@link FingerStore}.
+ *
+ * The engine implements the same algorithm of {@link Node}'s {@code lookup} method (the standard one found in
+ * Chord's specification paper), and produces exactly the same sequence of hops, but it walks the overlay in a
+ * loop instead of recursing from node to node, and it refers to nodes by their index in the ring. The engine
+ * holds no per-query state, so a single instance can be shared by any number of threads, each with its own
+ * {@link LookupResult}.
+ */
+public final class LookupEngine {
+
+    /**
+     * The identifier space of the ring.
+     */
+    private final IdSpace space;
+    /**
+     * The identifiers of the nodes.
+     */
+    private final long[] ids;
+    /**
+     * Number of limbs of each identifier.
+     */
+    private final int limbs;
+    /**
+     * Number of nodes in the ring.
+     */
+    private final int size;
+    /**
+     * The finger tables of the nodes.
+     */
+    private final FingerStore fingers;
+
+    /**
+     * Constructor of the class.
+     *
+     * @param ring The identifiers of the nodes of the overlay.
+     * @param fingers The finger tables of the nodes of the overlay.
+     */
+    public LookupEngine(SortedRing ring, FingerStore fingers) {
+        this.space = ring.getSpace();
+        this.ids = ring.ids();
+        this.limbs = space.getLimbs();
+        this.size = ring.size();
+        this.fingers = fingers;
+    }
+
+    /**
+     * Looks a key up, starting from a given node.
+     *
+     * @param start The index of the node that performs the query.
+     * @param key The array holding the key to be found.
+     * @param keyOff The offset of the key in its array.
+     * @param result The object where the outcome of the lookup is stored.
+     * @return the index of the node responsible for the key.
+     */
+    public int lookup(int start, long[] key, int keyOff, LookupResult result) {
+        result.reset();
+        int curr = start, next;
+        while ((next = nextHop(curr, key, keyOff)) >= 0) {
+            result.addHop(curr);
+            if (next == curr) {
+                break;
+            }
+            curr = next;
+        }
+        result.setOwner(curr);
+        return curr;
+    }
+
+    /**
+     * Performs a single step of {@link #lookup(int, long[], int, LookupResult)}: finds the node a query for a
+     * key is forwarded to by the node that holds it.
+     *
+     * @param node The index of the node that holds the query.
+     * @param key The array holding the key to be found.
+     * @param keyOff The offset of the key in its array.
+     * @return -1 if the node is responsible for the key; otherwise, the index of the node the query is
+     * forwarded to (its successor if the key falls between the two, else its closest preceding node), which
+     * is the node itself if it has nowhere to forward the query and the lookup ends there.
+     */
+    public int nextHop(int node, long[] key, int keyOff) {
+        int pred = (node == 0) ? size - 1 : node - 1;
+        if (Util.isInInterval(true, space, key, keyOff, ids, pred * limbs, ids, node * limbs)) {
+            return -1;
+        }
+        int succ = (node + 1 == size) ? 0 : node + 1;
+        if (Util.isInInterval(true, space, key, keyOff, ids, node * limbs, ids, succ * limbs)) {
+            return succ;
+        }
+        return closestPrecedingNode(node, key, keyOff);
+    }
+
+    /**
+     * Looks a key up, starting from a given node, on an overlay where some nodes have failed. The finger
+     * tables are those of the overlay before the failures, so they may point to failed nodes; each node also
+     * knows the list of the nodes that follow it in the ring (its successor list, see
+     * {@link Node#getSuccessorList(int)}).
+     *
+     * If the key falls within its successor list, a node hands the query to the first live node of the list
+     * that doesn't precede the key, which is responsible for it; otherwise, or if there is no such node, it
+     * forwards the query to the live node that most closely precedes the key among its fingers and its
+     * successor list. Every failed node the query tries to contact on the way costs a timeout, and the next
+     * best candidate is tried. The lookup fails if a node runs out of candidates. With a successor
+     * list of one node and no failures, the route is the same as {@link #lookup(int, long[], int, LookupResult)}.
+     *
+     * @param start The index of the node that performs the query, which must not have failed.
+     * @param key The array holding the key to be found.
+     * @param keyOff The offset of the key in its array.
+     * @param failed The indices of the failed nodes.
+     * @param successors The length of the successor lists, at least one.
+     * @param result The object where the outcome of the lookup is stored.
+     * @return the index of the node the lookup ends at, or -1 if it failed.
+     */
+    public int lookup(int start, long[] key, int keyOff, BitSet failed, int successors, LookupResult result) {
+        result.reset();
+        if (size == 1) {
+            // The only node is responsible for every key, and has no successors to fall back to; the route
+            // is the same of the standard lookup
+            result.addHop(start);
+            result.setOwner(start);
+            return start;
+        }
+        int length = Math.min(successors, size - 1);
+        int curr = start;
+        while (true) {
+            int pred = (curr == 0) ? size - 1 : curr - 1;
+            if (Util.isInInterval(true, space, key, keyOff, ids, pred * limbs, ids, curr * limbs)) {
+                break;
+            }
+            result.addHop(curr);
+            // The first live successor that doesn't precede the key, if the key falls within the list
+            int next = -1, within = 0;
+            for (int i = 1, s = curr; i <= length; i++) {
+                s = (s + 1 == size) ? 0 : s + 1;
+                if (within == 0 && Util.isInInterval(true, space, key, keyOff, ids, curr * limbs, ids, s * limbs)) {
+                    within = i;
+                }
+                if (within > 0) {
+                    if (!failed.get(s)) {
+                        next = s;
+                        break;
+                    }
+                    result.addTimeout();
+                }
+            }
+            if (next >= 0) {
+                curr = next;
+                break;
+            }
+            // Otherwise, the fingers beyond the successor list, if the key is beyond it too, then the nodes of
+            // the list that precede the key, from the farthest one
+            for (int r = fingers.end(curr) - 1, first = fingers.start(curr); r >= first && within == 0 && next < 0;
+                 r--) {
+                int f = fingers.target(r);
+                int distance = (f > curr) ? f - curr : f + size - curr;
+                if (distance <= length) {
+                    break;
+                }
+                if (Util.isInInterval(false, space, ids, f * limbs, ids, curr * limbs, key, keyOff)) {
+                    if (failed.get(f)) {
+                        result.addTimeout();
+                    } else {
+                        next = f;
+                    }
+                }
+            }
+            for (int i = (within > 0) ? within - 1 : length; i >= 1 && next < 0; i--) {
+                int s = (curr + i < size) ? curr + i : curr + i - size;
+                if (failed.get(s)) {
+                    result.addTimeout();
+                } else {
+                    next = s;
+                }
+            }
+            if (next < 0) {
+                curr = -1;
+                break;
+            }
+            curr = next;
+        }
+        result.setOwner(curr);
+        return curr;
+    }
+
+    /**
+     * Finds the closest preceding node of a key among the fingers of a node.
+     *
+     * @param node The index of the node whose fingers are scanned.
+     * @param key The array holding the key.
+     * @param keyOff The offset of the key in its array.
+     * @return the index of the farthest finger that precedes the key, or the node's successor if there is none.
+     */
+    public int closestPrecedingNode(int node, long[] key, int keyOff) {
+        int nodeOff = node * limbs;
+        for (int r = fingers.end(node) - 1, first = fingers.start(node); r >= first; r--) {
+            int curr = fingers.target(r);
+            if (Util.isInInterval(false, space, ids, curr * limbs, ids, nodeOff, key, keyOff)) {
+                return curr;
+            }
+        }
+        return (node + 1 == size) ? 0 : node + 1;
+    }
+}
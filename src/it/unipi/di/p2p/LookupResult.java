@@ -0,0 +1,98 @@
+package it.unipi.di.p2p;
+
+import java.util.Arrays;
+
+/**
+ * The outcome of a lookup performed by a {@link LookupEngine}: the node responsible for the key and the
+ * sequence of nodes the query went through, along with the number of failed nodes it tried to contact.
+ *
+ * Objects of this class are meant to be reused across lookups, so that routing does not allocate any memory
+ * once the path buffer has grown to the length of the longest route.
+ */
+public final class LookupResult {
+
+    /**
+     * Index of the node that satisfies the query.
+     */
+    private int owner = -1;
+    /**
+     * Number of hops of the query.
+     */
+    private int hops = 0;
+    /**
+     * Indices of the nodes the query went through; only the first {@code hops} elements are valid.
+     */
+    private int[] path = new int[32];
+    /**
+     * Number of failed nodes the query tried to contact, each costing a timeout.
+     */
+    private int timeouts = 0;
+
+    /**
+     * Clears the result, before starting a new lookup.
+     */
+    void reset() {
+        owner = -1;
+        hops = 0;
+        timeouts = 0;
+    }
+
+    /**
+     * Adds a hop to the path.
+     * @param node The index of the node the query went through.
+     */
+    void addHop(int node) {
+        if (hops == path.length) {
+            path = Arrays.copyOf(path, hops * 2);
+        }
+        path[hops++] = node;
+    }
+
+    /**
+     * Records an attempt to contact a failed node.
+     */
+    void addTimeout() {
+        timeouts++;
+    }
+
+    /**
+     * Sets the node that satisfies the query.
+     * @param owner The index of the node responsible for the key.
+     */
+    void setOwner(int owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * Returns the index of the node that satisfies the query.
+     * @return the index of the node responsible for the key, or -1 if the lookup failed.
+     */
+    public int getOwner() {
+        return owner;
+    }
+
+    /**
+     * Returns the number of hops of the query.
+     * @return the number of hops of the query.
+     */
+    public int getHops() {
+        return hops;
+    }
+
+    /**
+     * Returns a node of the query's path.
+     * @param i The position of the hop in the path, between 0 and {@code getHops() - 1}.
+     * @return the index of the node.
+     */
+    public int getHop(int i) {
+        return path[i];
+    }
+
+    /**
+     * Returns the number of failed nodes the query tried to contact.
+     * @return the number of timeouts of the query.
+     */
+    public int getTimeouts() {
+        return timeouts;
+    }
+}
@@ -14,12 +14,26 @@ import java.time.format.DateTimeFormatter;
 public class Main {
     public static void main(String[] args) throws NoSuchAlgorithmException {
 
-        if (args.length < 2 || Integer.parseInt(args[0]) % 4 != 0) {
+        if (args.length < 2 || Integer.parseInt(args[0]) < 1) {
             System.out.println("Invalid invocation, please provide identifiers' bitsize " +
-                    "(divisible by 4) and number of nodes");
+                    "and number of nodes, optionally followed by --threads=N, --seed=N,\n" +
+                    "--hash=sha1|sha256|sha512|fast (fast has only 64 bits of entropy), --format=csv|binary,\n" +
+                    "--paths=all|N (shortest paths from all the nodes or from N sampled ones),\n" +
+                    "--degrees=on|off (clustering coefficients and in-degrees of the finger graph),\n" +
+                    "--load=QPS (message-level simulation of the queries issued at QPS queries per second),\n" +
+                    "--latency=const:MS|uniform:MIN:MAX|link:MIN:MAX, --service=MS (per-message processing time),\n" +
+                    "--stabilize=MS (simulation of the maintenance protocol run every MS milliseconds, while half\n" +
+                    "of the nodes join at --joins=N nodes per second for --duration=S seconds, with --lookups=QPS\n" +
+                    "lookups per second),\n" +
+                    "--virtual=V (V identifiers per node, to spread the keys more evenly),\n" +
+                    "--fail=FRACTION (lookups after a fraction of the nodes fail, with --successors=R long successor lists),\n" +
+                    "and --trace=off|info|debug|trace");
         } else {
             int idSize = Integer.parseInt(args[0]), nodesNumber = Integer.parseInt(args[1]);
-            BigInteger ids = BigInteger.TWO.pow(idSize), nodes = BigInteger.valueOf(nodesNumber);
+            String virtual = option(args, "virtual");
+            int virtualNodes = (virtual != null) ? Integer.parseInt(virtual) : 1;
+            BigInteger ids = BigInteger.TWO.pow(idSize),
+                    nodes = BigInteger.valueOf(nodesNumber).multiply(BigInteger.valueOf(virtualNodes));
             if (idSize > 512) {
                 System.out.println("Please provide an identifier size of no more than 512 bits.");
             } else if (nodes.compareTo(ids) > 0) {
@@ -29,8 +43,41 @@ public class Main {
                 final String extension = ".csv";
                 final String topology = "topologies/" + nodesNumber + "/";
                 final String routing = "routing/" + nodesNumber + "/";
+                final String latency = "latency/" + nodesNumber + "/";
+                final String stabilization = "stabilization/" + nodesNumber + "/";
+                final String failures = "failures/" + nodesNumber + "/";
 
-                Coordinator c = new Coordinator(nodesNumber, idSize);
+                String trace = option(args, "trace");
+                if (trace != null) {
+                    Trace.setLevel(Trace.Level.valueOf(trace.toUpperCase()));
+                }
+                String seed = option(args, "seed");
+                Coordinator c = (seed != null)
+                        ? new Coordinator(nodesNumber, idSize, Long.parseLong(seed))
+                        : new Coordinator(nodesNumber, idSize);
+                String hash = option(args, "hash"), model = option(args, "latency");
+                LatencyModel latencyModel;
+                try {
+                    if (hash != null) {
+                        c.setHashAlgorithm(HashAlgorithm.fromName(hash));
+                    }
+                    latencyModel = LatencyModel.parse(model != null ? model : "link:10:100", c.getSeed());
+                } catch (IllegalArgumentException e) {
+                    System.out.println(e.getMessage());
+                    return;
+                }
+                // Allows the run to be repeated
+                System.out.println("Seed: " + c.getSeed());
+                String threads = option(args, "threads");
+                if (threads != null) {
+                    c.setParallelism(Integer.parseInt(threads));
+                }
+                String paths = option(args, "paths");
+                if (paths != null) {
+                    c.setPathSources("all".equals(paths) ? Integer.MAX_VALUE : Integer.parseInt(paths));
+                }
+                c.setDegreeAnalysis("on".equals(option(args, "degrees")));
+                c.setVirtualNodes(virtualNodes);
 
                 c.buildOverlay();
 
@@ -39,21 +86,66 @@ public class Main {
 
                 String filename = prefix + LocalDateTime.now().format(DateTimeFormatter.ofPattern("dd-MM_HHmmss"));
 
-                // Creates two files: ./topologies/$nodesNumber/$idSize_$currentTime.csv
-                // and ./routing/$nodesNumber/$idSize_$currentTime.csv
+                // Creates two files: ./topologies/$nodesNumber/$idSize_$currentTime.csv (or .bin)
+                // and ./routing/$nodesNumber/$idSize_$currentTime.csv, plus
+                // ./latency/$nodesNumber/$idSize_$currentTime.csv for message-level simulations and
+                // ./stabilization/$nodesNumber/$idSize_$currentTime.csv for simulations of the maintenance protocol
+                // and ./failures/$nodesNumber/$idSize_$currentTime.csv for failure injections
                 try {
                     Files.createDirectories(Paths.get(topology));
                     Files.createDirectories(Paths.get(routing));
 
-                    fw = new FileWriter(topology + filename + extension);
-                    pw = new PrintWriter(new BufferedWriter(fw));
+                    if ("binary".equals(option(args, "format"))) {
+                        c.writeBinaryTopology(Paths.get(topology + filename + ".bin"));
+                    } else {
+                        fw = new FileWriter(topology + filename + extension);
+                        pw = new PrintWriter(new BufferedWriter(fw, 1 << 16));
+                        c.writeTopology(pw);
+                    }
 
                     fw1 = new FileWriter(routing + filename + extension);
                     pw1 = new PrintWriter(new BufferedWriter(fw1));
 
-                    pw.print(c.getTopology());
                     pw1.print(c.simulateRouting(nodesNumber));
 
+                    String load = option(args, "load");
+                    if (load != null) {
+                        String service = option(args, "service");
+                        Files.createDirectories(Paths.get(latency));
+                        try (PrintWriter pw2 = new PrintWriter(new BufferedWriter(
+                                new FileWriter(latency + filename + extension)))) {
+                            pw2.print(c.simulateMessages(nodesNumber, Double.parseDouble(load),
+                                    latencyModel,
+                                    Math.round(Double.parseDouble(service != null ? service : "0.1") * 1000)));
+                        }
+                    }
+
+                    String stabilize = option(args, "stabilize");
+                    if (stabilize != null) {
+                        String joins = option(args, "joins"), lookups = option(args, "lookups"),
+                                duration = option(args, "duration");
+                        Files.createDirectories(Paths.get(stabilization));
+                        try (PrintWriter pw3 = new PrintWriter(new BufferedWriter(
+                                new FileWriter(stabilization + filename + extension)))) {
+                            pw3.print(c.simulateStabilization(Math.round(Double.parseDouble(stabilize) * 1000),
+                                    Math.max(1, nodesNumber / 2),
+                                    Double.parseDouble(joins != null ? joins : "10"),
+                                    Double.parseDouble(lookups != null ? lookups : "100"),
+                                    Math.round(Double.parseDouble(duration != null ? duration : "60") * 1e6)));
+                        }
+                    }
+
+                    String fail = option(args, "fail");
+                    if (fail != null) {
+                        String successors = option(args, "successors");
+                        Files.createDirectories(Paths.get(failures));
+                        try (PrintWriter pw4 = new PrintWriter(new BufferedWriter(
+                                new FileWriter(failures + filename + extension)))) {
+                            pw4.print(c.simulateFailures(Double.parseDouble(fail),
+                                    Integer.parseInt(successors != null ? successors : "16"), nodesNumber));
+                        }
+                    }
+
                 } catch (IOException e) {
                     e.printStackTrace();
                 } finally {
@@ -77,4 +169,21 @@ public class Main {
             }
         }
     }
+
+    /**
+     * Gets the value of an optional argument of the form {@code --name=value}.
+     *
+     * @param args The command line arguments.
+     * @param name The name of the option.
+     * @return the value of the option, or null if it was not given.
+     */
+    private static String option(String[] args, String name) {
+        String prefix = "--" + name + "=";
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].startsWith(prefix)) {
+                return args[i].substring(prefix.length());
+            }
+        }
+        return null;
+    }
 }
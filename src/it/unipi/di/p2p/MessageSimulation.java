@@ -0,0 +1,359 @@
+package it.unipi.di.p2p;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * A discrete-event simulation of lookups on a static overlay, where every step of a lookup is a message
+ * between two nodes.
+ *
+ * Queries are issued by random nodes for random keys, as a Poisson process with a given rate. A query is a
+ * message that each node on its route receives, processes and forwards to the next node, following the same
+ * algorithm of {@link LookupEngine} (so it goes through the same hops); the node responsible for the key sends
+ * a reply back to the node that issued the query, which completes the lookup. Each message takes the latency
+ * of its link (see {@link LatencyModel}) to be delivered, and then waits in the receiving node's queue: every
+ * node processes its messages one at a time, in the order they arrived, each taking the same service time.
+ * Since a node's queue is served in order, the time at which a message gets processed is known as soon as it
+ * is delivered, so the queue of each node is only represented by the time its last message will be done and
+ * by the number of messages waiting.
+ *
+ * Times are in microseconds. Events are handled by an {@link EventScheduler}.
+ */
+public final class MessageSimulation {
+
+    /**
+     * Event: a new query is issued; the payload is the index of the query.
+     */
+    private static final int ISSUE = 0;
+    /**
+     * Event: a message is delivered to a node and joins its queue; the payload is the message.
+     */
+    private static final int DELIVER = 1;
+    /**
+     * Event: a node is done processing a message; the payload is the message.
+     */
+    private static final int PROCESS = 2;
+
+    /**
+     * The identifier space of the ring.
+     */
+    private final IdSpace space;
+    /**
+     * Number of limbs of each identifier.
+     */
+    private final int limbs;
+    /**
+     * Number of nodes in the ring.
+     */
+    private final int size;
+    /**
+     * The engine whose routing decisions are followed.
+     */
+    private final LookupEngine engine;
+    /**
+     * The latency of the links.
+     */
+    private final LatencyModel latencyModel;
+    /**
+     * The time a node takes to process a message.
+     */
+    private final long serviceTime;
+
+    /**
+     * For each node, the time at which it will be done with all the messages in its queue.
+     */
+    private long[] busyUntil;
+    /**
+     * For each node, the number of messages in its queue (including the one being processed).
+     */
+    private int[] queued;
+    /**
+     * The longest queue seen at any node.
+     */
+    private int maxQueue;
+    /**
+     * For each query, the node that issued it.
+     */
+    private int[] origins;
+    /**
+     * The keys of the queries, one after the other.
+     */
+    private long[] keys;
+    /**
+     * For each query, the time it was issued.
+     */
+    private long[] issued;
+    /**
+     * For each query, its latency, or -1 if it is not complete yet.
+     */
+    private long[] latencies;
+    /**
+     * For each query, the node responsible for its key.
+     */
+    private int[] owners;
+    /**
+     * For each query, the number of hops of its route.
+     */
+    private int[] hops;
+    /**
+     * Number of messages sent.
+     */
+    private long messages;
+    /**
+     * Number of events handled.
+     */
+    private long events;
+    /**
+     * The time the last query was completed.
+     */
+    private long endTime;
+
+    /**
+     * Constructor of the class.
+     *
+     * @param ring The identifiers of the nodes of the overlay.
+     * @param fingers The finger tables of the nodes of the overlay.
+     * @param latencyModel The latency of the links.
+     * @param serviceTime The time a node takes to process a message, in microseconds.
+     */
+    public MessageSimulation(SortedRing ring, FingerStore fingers, LatencyModel latencyModel, long serviceTime) {
+        this.space = ring.getSpace();
+        this.limbs = space.getLimbs();
+        this.size = ring.size();
+        this.engine = new LookupEngine(ring, fingers);
+        this.latencyModel = latencyModel;
+        this.serviceTime = serviceTime;
+    }
+
+    /**
+     * Runs the simulation until all the queries are complete. Messages are identified by the index of their
+     * query, shifted left by one bit, and by their direction in the lowest bit (set for replies).
+     *
+     * @param number The number of queries, less than 2^30.
+     * @param rate The rate at which the queries are issued, in queries per second.
+     * @param random The random stream the queries and the latencies are drawn from.
+     */
+    public void run(int number, double rate, SplittableRandom random) {
+        if (number < 0 || number >= 1 << 30) {
+            throw new IllegalArgumentException("Invalid number of queries: " + number);
+        }
+        if (!(rate > 0)) {
+            throw new IllegalArgumentException("The rate must be positive");
+        }
+        SplittableRandom arrivals = random.split(), links = random.split();
+        busyUntil = new long[size];
+        queued = new int[size];
+        maxQueue = 0;
+        origins = new int[number];
+        keys = new long[number * limbs];
+        issued = new long[number];
+        latencies = new long[number];
+        owners = new int[number];
+        hops = new int[number];
+        Arrays.fill(latencies, -1);
+        messages = 0;
+        events = 0;
+        endTime = 0;
+
+        EventScheduler scheduler = new EventScheduler(Math.max(16, Math.min(number, 1 << 20)));
+        if (number > 0) {
+            scheduler.schedule(0, ISSUE, 0, 0);
+        }
+        double meanInterval = 1e6 / rate;
+        while (scheduler.poll()) {
+            events++;
+            long now = scheduler.getTime();
+            int node = scheduler.getNode(), payload = scheduler.getPayload();
+            switch (scheduler.getKind()) {
+                case ISSUE:
+                    int origin = arrivals.nextInt(size);
+                    origins[payload] = origin;
+                    for (int k = 0; k < limbs; k++) {
+                        keys[payload * limbs + k] = arrivals.nextLong();
+                    }
+                    keys[payload * limbs] &= space.getTopMask();
+                    issued[payload] = now;
+                    // The query starts in the queue of the node that issues it
+                    scheduler.schedule(now, DELIVER, origin, payload << 1);
+                    if (payload + 1 < number) {
+                        long interval = Math.round(-Math.log(1.0 - arrivals.nextDouble()) * meanInterval);
+                        scheduler.schedule(now + interval, ISSUE, 0, payload + 1);
+                    }
+                    break;
+                case DELIVER:
+                    long start = Math.max(now, busyUntil[node]);
+                    busyUntil[node] = start + serviceTime;
+                    maxQueue = Math.max(maxQueue, ++queued[node]);
+                    scheduler.schedule(busyUntil[node], PROCESS, node, payload);
+                    break;
+                case PROCESS:
+                    queued[node]--;
+                    process(scheduler, links, node, payload);
+                    break;
+                default:
+                    throw new AssertionError("Unknown event");
+            }
+        }
+    }
+
+    /**
+     * Handles a message, once its node is done processing it.
+     *
+     * @param scheduler The scheduler of the simulation.
+     * @param links The random stream of the latencies.
+     * @param node The index of the node.
+     * @param message The message.
+     */
+    private void process(EventScheduler scheduler, SplittableRandom links, int node, int message) {
+        int query = message >>> 1;
+        long now = scheduler.getTime();
+        if ((message & 1) != 0) {
+            latencies[query] = now - issued[query];
+            endTime = Math.max(endTime, now);
+            return;
+        }
+        int next = engine.nextHop(node, keys, query * limbs);
+        if (next >= 0) {
+            hops[query]++;
+        }
+        if (next >= 0 && next != node) {
+            send(scheduler, links, node, next, message);
+        } else {
+            // The node is responsible for the key
+            owners[query] = node;
+            if (node == origins[query]) {
+                latencies[query] = now - issued[query];
+                endTime = Math.max(endTime, now);
+            } else {
+                send(scheduler, links, node, origins[query], message | 1);
+            }
+        }
+    }
+
+    /**
+     * Sends a message.
+     *
+     * @param scheduler The scheduler of the simulation.
+     * @param links The random stream of the latencies.
+     * @param from The index of the sender.
+     * @param to The index of the receiver.
+     * @param message The message.
+     */
+    private void send(EventScheduler scheduler, SplittableRandom links, int from, int to, int message) {
+        messages++;
+        scheduler.schedule(scheduler.getTime() + latencyModel.latency(from, to, links), DELIVER, to, message);
+    }
+
+    /**
+     * Gets the number of events handled by the last run.
+     * @return the number of events.
+     */
+    public long getEvents() {
+        return events;
+    }
+
+    /**
+     * Gets the number of messages sent during the last run.
+     * @return the number of messages.
+     */
+    public long getMessages() {
+        return messages;
+    }
+
+    /**
+     * Gets the node that issued a query of the last run.
+     *
+     * @param query The index of the query.
+     * @return the index of the node that issued the query.
+     */
+    public int getOrigin(int query) {
+        return origins[query];
+    }
+
+    /**
+     * Copies the key of a query of the last run.
+     *
+     * @param query The index of the query.
+     * @param dst The array the key is copied to.
+     * @param dstOff The offset of the key in its array.
+     */
+    public void getKey(int query, long[] dst, int dstOff) {
+        System.arraycopy(keys, query * limbs, dst, dstOff, limbs);
+    }
+
+    /**
+     * Gets the node responsible for the key of a query of the last run.
+     *
+     * @param query The index of the query.
+     * @return the index of the node responsible for the key.
+     */
+    public int getOwner(int query) {
+        return owners[query];
+    }
+
+    /**
+     * Gets the number of hops of a query of the last run.
+     *
+     * @param query The index of the query.
+     * @return the number of hops of the query.
+     */
+    public int getHops(int query) {
+        return hops[query];
+    }
+
+    /**
+     * Gets the latency of a query of the last run, from the moment it was issued to the moment the reply was
+     * processed by the node that issued it.
+     *
+     * @param query The index of the query.
+     * @return the latency of the query, in microseconds.
+     */
+    public long getLatency(int query) {
+        return latencies[query];
+    }
+
+    /**
+     * Outputs the statistics of the last run in CSV format: a summary, followed by the histogram of the
+     * latencies of the queries in milliseconds.
+     *
+     * @return A {@link String} containing the statistics of the last run, in CSV format.
+     */
+    public String toCSV() {
+        int number = latencies.length;
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        long latencySum = 0, hopSum = 0;
+        for (int q = 0; q < number; q++) {
+            latencySum += latencies[q];
+            hopSum += hops[q];
+        }
+        StringBuilder sb = new StringBuilder();
+        sb
+                .append("queries,").append(number).append('\n')
+                .append("latency_model,").append(latencyModel).append('\n')
+                .append("service_time_ms,").append(serviceTime / 1000.0).append('\n')
+                .append("simulated_time_ms,").append(endTime / 1000.0).append('\n')
+                .append("events,").append(events).append('\n')
+                .append("messages,").append(messages).append('\n')
+                .append("max_queue_length,").append(maxQueue).append('\n')
+                .append("avg_hops_per_query,").append(number > 0 ? ((double) hopSum) / number : 0.0).append('\n')
+                .append("avg_latency_ms,").append(number > 0 ? latencySum / 1000.0 / number : 0.0).append('\n');
+        for (int percentile : new int[]{50, 90, 99, 100}) {
+            long value = (number > 0) ? sorted[(int) Math.min(number - 1, ((long) number * percentile + 99) / 100 - 1)] : 0;
+            sb.append(percentile == 100 ? "max" : "p" + percentile).append("_latency_ms,")
+                    .append(value / 1000.0).append('\n');
+        }
+
+        sb.append('\n').append("latency_ms,queries").append('\n');
+        for (int q = 0; q < number; ) {
+            long ms = sorted[q] / 1000;
+            int count = 0;
+            while (q < number && sorted[q] / 1000 == ms) {
+                count++;
+                q++;
+            }
+            sb.append(ms).append(',').append(count).append('\n');
+        }
+        return sb.toString();
+    }
+}
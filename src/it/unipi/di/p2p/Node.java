@@ -1,7 +1,7 @@
 package it.unipi.di.p2p;
 
-import java.math.BigInteger;
-import java.net.InetAddress;
+import java.io.IOException;
+import java.io.StringWriter;
 
 /**
  * A class representing the nodes of the Chord overlay.
@@ -12,22 +12,22 @@ public class Node {
      * A private inner class that represents the network address of a node.
      */
     private class NodeAddress {
-        InetAddress addr;
-        int port;
+        /**
+         * The IPv4 address and the port of the node, packed as in {@link Util#packAddress(int, int)}.
+         */
+        long address;
 
         /**
          * Constructor for the NodeAddress class.
-         * @param addr The IP address of the node.
-         * @param port The port exposed by the node.
+         * @param address The IPv4 address and the port of the node, packed into a single value.
          */
-        NodeAddress(InetAddress addr, int port) {
-            this.addr = addr;
-            this.port = port;
+        NodeAddress(long address) {
+            this.address = address;
         }
 
         @Override
         public String toString() {
-            return addr.getHostAddress() + ":" + port;
+            return Util.addressToString(address);
         }
 
         @Override
@@ -40,18 +40,20 @@ public class Node {
             }
 
             NodeAddress n = (NodeAddress) o;
-            return n.addr.equals(addr) && n.port == port;
+            return n.address == address;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(address);
         }
     }
 
     /**
-     * The number of bits for representing identifiers.
-     */
-    private int idSpace;
-    /**
-     * The node's finger table.
+     * The index of this node in the overlay's ring, which is also the index of its finger table in
+     * the overlay's {@link FingerStore}.
      */
-    private BigInteger[] fingertable;
+    private int index;
     /**
      * The NodeAddress representing this Node's IP address and port.
      */
@@ -63,7 +65,7 @@ public class Node {
     /**
      * This node's id.
      */
-    private BigInteger id;
+    private RingId id;
     /**
      * This node's predecessor.
      */
@@ -77,16 +79,14 @@ public class Node {
      * The Node's constructor.
      *
      * @param coordinator A reference to the overlay's coordinator.
-     * @param idSpace The number of bits for representing identifiers.
-     * @param addr The IP address of the node.
-     * @param port The port exposed by the node.
+     * @param address The IPv4 address and the port of the node, packed as in {@link Util#packAddress(int, int)}.
      * @param id The id assigned to this node.
+     * @param index The index of this node in the overlay's ring.
      */
-    public Node(Coordinator coordinator, int idSpace, InetAddress addr, int port, BigInteger id) {
+    public Node(Coordinator coordinator, long address, RingId id, int index) {
         this.coordinator = coordinator;
-        this.idSpace = idSpace;
-        this.fingertable = null;
-        this.nAddr = new NodeAddress(addr, port);
+        this.index = index;
+        this.nAddr = new NodeAddress(address);
         this.id = id;
         this.predecessor = null;
         this.successor = null;
@@ -103,7 +103,7 @@ public class Node {
      * @param logger A {@link RouteLogger} object to collect statistics.
      * @return Always true.
      */
-    public boolean contains(BigInteger dataID, RouteLogger logger) {
+    public boolean contains(RingId dataID, RouteLogger logger) {
         logger.addEndNode(this.id);
         return true;
     }
@@ -125,69 +125,63 @@ public class Node {
     }
 
     /**
-     * Performs the a query to search for some data.
-     * The lookup algorithm is the standard one found in Chord's specification paper.
+     * Gets this node's successor list: the nodes that follow it in the ring, starting from its successor,
+     * which it can fall back to when its successor fails. The list is not stored, since in an overlay built
+     * by the {@link Coordinator} the successors of a node are the ones that follow it in the overlay's ring.
      *
-     * @param dataID The ID of the data to search.
-     * @param logger A {@link RouteLogger} object to collect statistics
-     * @return true if the lookup succeeds.
-     */
-    public boolean lookup(BigInteger dataID, RouteLogger logger) {
-
-        BigInteger wrapPoint = BigInteger.TWO.pow(idSpace);
-
-        if (Util.isInInterval(true, dataID, predecessor.id, id, wrapPoint)) {
-            return this.contains(dataID, logger);
-        } else if (Util.isInInterval(true, dataID, id, successor.id, wrapPoint)) {
-            logger.addHop(id);
-            return successor.contains(dataID, logger);
-        } else {
-            logger.addHop(id);
-            Node n = closestPrecedingNode(dataID);
-            if (n.equals(this)) return this.contains(dataID, logger);
-            return n.lookup(dataID, logger);
+     * @param length The length of the list; a list is never longer than the number of other nodes.
+     * @return the nodes of the successor list, in ring order.
+     */
+    public Node[] getSuccessorList(int length) {
+        int size = coordinator.getRing().size();
+        Node[] list = new Node[Math.max(0, Math.min(length, size - 1))];
+        for (int i = 0, s = index; i < list.length; i++) {
+            s = (s + 1 == size) ? 0 : s + 1;
+            list[i] = coordinator.getNode(s);
         }
+        return list;
     }
 
     /**
-     * A method to find the closest preceding node for any ID value on the ring.
+     * Performs the a query to search for some data.
+     * The lookup algorithm is the standard one found in Chord's specification paper; the routing itself
+     * is carried out by the overlay's {@link LookupEngine}, which walks the nodes iteratively.
      *
      * @param dataID The ID of the data to search.
-     * @return the closes preceding node for the given ID.
+     * @param logger A {@link RouteLogger} object to collect statistics
+     * @return true if the lookup succeeds.
      */
-    private Node closestPrecedingNode(BigInteger dataID) {
-        for (int i = idSpace - 1; i >= 0; i--) {
-            BigInteger curr = extract(fingertable[i]);
-            if (Util.isInInterval(false, curr, id, dataID, BigInteger.TWO.pow(idSpace))) {
-                return coordinator.getNode(curr);
-            }
+    public boolean lookup(RingId dataID, RouteLogger logger) {
+        LookupResult result = new LookupResult();
+        coordinator.getLookupEngine().lookup(index, dataID.limbs(), 0, result);
+        for (int i = 0; i < result.getHops(); i++) {
+            logger.addHop(coordinator.getNode(result.getHop(i)).id);
         }
-        return successor;
+        return coordinator.getNode(result.getOwner()).contains(dataID, logger);
     }
 
     /**
-     * Sets this node's finger table.
-     * @param fingertable An array of @{@link BigInteger} to be set as this node's finger table.
+     * Gets this node's ID.
+     * @return The ID for this node.
      */
-    public void setFingertable(BigInteger[] fingertable) {
-        this.fingertable = fingertable;
+    public RingId getId() {
+        return id;
     }
 
     /**
-     * Gets this node's ID.
-     * @return The ID for this node.
+     * Gets the index of this node in the overlay's ring.
+     * @return the index of this node.
      */
-    public BigInteger getId() {
-        return id;
+    public int getIndex() {
+        return index;
     }
 
     /**
-     * A method to return the correct ID for a finger of this node. See @{@link Coordinator}.createFingerTable method.
-     * @param which An ID to be checked.
-     * @return The same ID or this node's successor, if {@code which == null}.
+     * Sets the index of this node in the overlay's ring, when nodes join or leave the overlay.
+     * @param index The new index of this node.
      */
-    private BigInteger extract(BigInteger which) {
-        return (which == null) ? fingertable[0] : which;
+    void setIndex(int index) {
+        this.index = index;
     }
 
     /**
@@ -204,17 +198,14 @@ public class Node {
      * @return a {@link String} containing this node's finger table in CSV format.
      */
     public String toCSV() {
-        StringBuilder sb = new StringBuilder();
-        String thisName = Util.bytesToHex_NoTrim(this.id.toByteArray());//.getReadableName();
-
-        for (int i = 0; i < idSpace; i++) {
-            sb.append(thisName)
-                    .append(",")
-                    .append(Util.bytesToHex_NoTrim(coordinator.getNode(extract(fingertable[i])).getId().toByteArray()))//ReadableName())
-                    .append('\n');
+        StringWriter sw = new StringWriter();
+        try {
+            new TopologyWriter(coordinator.getRing(), coordinator.getFingerStore()).writeNode(index, sw);
+        } catch (IOException e) {
+            // Should never occur, since a StringWriter doesn't throw
+            throw new AssertionError(e);
         }
-
-        return sb.toString();
+        return sw.toString();
     }
 
     @Override
@@ -230,4 +221,9 @@ public class Node {
         return n.id.equals(id) && n.nAddr.equals(nAddr);
     }
 
+    @Override
+    public int hashCode() {
+        return 31 * id.hashCode() + nAddr.hashCode();
+    }
+
 }
@@ -0,0 +1,103 @@
+package it.unipi.di.p2p;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Periodically reports the progress of a long-running phase (completed items, rate and estimated time
+ * left) from a background daemon thread, through {@link Trace} at the {@link Trace.Level#INFO} level.
+ *
+ * Workers report their progress with {@link #add(long)}, which is a single atomic addition; they should call
+ * it once per batch of items rather than once per item. If the INFO level is not enabled when the reporter is
+ * started, no thread is created and {@link #add(long)} only updates the counter.
+ */
+public final class ProgressReporter implements AutoCloseable {
+
+    /**
+     * The name of the phase.
+     */
+    private final String phase;
+    /**
+     * The total number of items of the phase.
+     */
+    private final long total;
+    /**
+     * The number of items completed so far.
+     */
+    private final AtomicLong done = new AtomicLong();
+    /**
+     * When the phase started, in nanoseconds.
+     */
+    private final long start;
+    /**
+     * The reporting thread, or null if progress is not reported.
+     */
+    private final Thread thread;
+
+    /**
+     * Creates a reporter and starts reporting.
+     *
+     * @param phase The name of the phase.
+     * @param total The total number of items of the phase.
+     * @param intervalMillis The time between two reports, in milliseconds.
+     */
+    public ProgressReporter(String phase, long total, long intervalMillis) {
+        this.phase = phase;
+        this.total = total;
+        this.start = System.nanoTime();
+        if (Trace.isEnabled(Trace.Level.INFO)) {
+            thread = new Thread(() -> {
+                try {
+                    while (true) {
+                        Thread.sleep(intervalMillis);
+                        report();
+                    }
+                } catch (InterruptedException e) {
+                    // The phase is over
+                }
+            }, "progress-" + phase);
+            thread.setDaemon(true);
+            thread.start();
+        } else {
+            thread = null;
+        }
+    }
+
+    /**
+     * Records the completion of some items.
+     * @param items The number of items completed.
+     */
+    public void add(long items) {
+        done.addAndGet(items);
+    }
+
+    /**
+     * Reports the current progress.
+     */
+    private void report() {
+        long d = done.get();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double rate = (seconds > 0) ? d / seconds : 0;
+        String eta = (rate > 0) ? String.format(Locale.ROOT, "%.1fs", (total - d) / rate) : "?";
+        Trace.log(Trace.Level.INFO, () -> String.format(Locale.ROOT, "%s: %d/%d (%.1f%%), %.0f/s, ETA %s",
+                phase, d, total, total > 0 ? 100.0 * d / total : 100.0, rate, eta));
+    }
+
+    /**
+     * Stops reporting and reports the final progress and the elapsed time.
+     */
+    @Override
+    public void close() {
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            Trace.log(Trace.Level.INFO, () -> String.format(Locale.ROOT, "%s: %d items done in %.2fs",
+                    phase, done.get(), seconds));
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package it.unipi.di.p2p;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * An immutable identifier on the Chord ring, i.e. an integer modulo 2^bits.
+ *
+ * The value is stored as a fixed-width array of 64-bit limbs (see {@link IdSpace}), so comparisons and
+ * interval tests never allocate, and identifiers of up to 64 bits boil down to a single primitive comparison.
+ */
+public final class RingId implements Comparable<RingId> {
+
+    /**
+     * The identifier space this identifier belongs to.
+     */
+    private final IdSpace space;
+    /**
+     * The limbs of this identifier, most significant first.
+     */
+    private final long[] limbs;
+
+    /**
+     * Constructor of the class. The array is not copied.
+     *
+     * @param space The identifier space this identifier belongs to.
+     * @param limbs The limbs of this identifier, most significant first.
+     */
+    RingId(IdSpace space, long[] limbs) {
+        this.space = space;
+        this.limbs = limbs;
+    }
+
+    /**
+     * Builds an identifier from a {@link BigInteger}, reducing it modulo 2^bits.
+     *
+     * @param space The identifier space of the new identifier.
+     * @param value The value of the identifier.
+     * @return a new {@link RingId} with the given value.
+     */
+    public static RingId fromBigInteger(IdSpace space, BigInteger value) {
+        long[] l = new long[space.getLimbs()];
+        space.fromBigInteger(value, l, 0);
+        return new RingId(space, l);
+    }
+
+    /**
+     * Builds an identifier from an unsigned, big-endian byte array, reducing it modulo 2^bits.
+     *
+     * @param space The identifier space of the new identifier.
+     * @param bytes The byte representation of the identifier.
+     * @return a new {@link RingId} with the given value.
+     */
+    public static RingId fromBytes(IdSpace space, byte[] bytes) {
+        int n = space.getLimbs();
+        long[] l = new long[n];
+        for (int i = 0; i < bytes.length && i < n * 8; i++) {
+            int limb = n - 1 - (i >>> 3);
+            l[limb] |= (bytes[bytes.length - 1 - i] & 0xFFL) << ((i & 7) << 3);
+        }
+        l[0] &= space.getTopMask();
+        return new RingId(space, l);
+    }
+
+    /**
+     * Builds an identifier from the most significant bits of a digest (see {@link Util#truncate(byte[], int)}).
+     *
+     * @param space The identifier space of the new identifier.
+     * @param digest The digest to be truncated.
+     * @return a new {@link RingId} holding the truncated digest.
+     */
+    public static RingId fromDigest(IdSpace space, byte[] digest) {
+        long[] l = new long[space.getLimbs()];
+        Util.truncate(digest, space, l, 0);
+        return new RingId(space, l);
+    }
+
+    /**
+     * Gets the identifier space this identifier belongs to.
+     * @return the identifier space of this identifier.
+     */
+    public IdSpace getSpace() {
+        return space;
+    }
+
+    /**
+     * Gives access to the limbs of this identifier. The returned array must not be modified.
+     * @return the limbs of this identifier, most significant first.
+     */
+    long[] limbs() {
+        return limbs;
+    }
+
+    /**
+     * Computes {@code (this + 2^exp) mod 2^bits}.
+     *
+     * @param exp The exponent of the power of two to be added.
+     * @return a new {@link RingId} holding the result.
+     */
+    public RingId addPowerOfTwo(int exp) {
+        long[] l = new long[limbs.length];
+        space.addPowerOfTwo(limbs, 0, exp, l, 0);
+        return new RingId(space, l);
+    }
+
+    /**
+     * Computes {@code (this - other) mod 2^bits}, i.e. the clockwise distance from other to this.
+     *
+     * @param other The identifier to be subtracted.
+     * @return a new {@link RingId} holding the result.
+     */
+    public RingId subtract(RingId other) {
+        long[] l = new long[limbs.length];
+        space.subtract(limbs, 0, other.limbs, 0, l, 0);
+        return new RingId(space, l);
+    }
+
+    /**
+     * Checks whether this identifier is zero.
+     * @return true if this identifier is zero.
+     */
+    public boolean isZero() {
+        return space.isZero(limbs, 0);
+    }
+
+    /**
+     * Checks whether this identifier is inside an interval of the ring, which may wrap around zero.
+     * The interval is always left-open; a degenerate interval whose endpoints coincide is empty.
+     *
+     * @param rightBounded a boolean to indicate whether the interval is right-closed
+     * @param leftEndpoint the left endpoint of the interval
+     * @param rightEndpoint the right endpoint of the interval
+     * @return true if this identifier is in the interval delimited by leftEndpoint and rightEndpoint
+     */
+    public boolean isInInterval(boolean rightBounded, RingId leftEndpoint, RingId rightEndpoint) {
+        return Util.isInInterval(rightBounded, space, limbs, 0, leftEndpoint.limbs, 0, rightEndpoint.limbs, 0);
+    }
+
+    /**
+     * Converts this identifier to a {@link BigInteger}.
+     * @return a non-negative {@link BigInteger} with the same value.
+     */
+    public BigInteger toBigInteger() {
+        return space.toBigInteger(limbs, 0);
+    }
+
+    /**
+     * Converts this identifier into a byte array, exactly as {@link BigInteger#toByteArray()} would.
+     * @return the byte representation of this identifier.
+     */
+    public byte[] toByteArray() {
+        return space.toByteArray(limbs, 0);
+    }
+
+    @Override
+    public int compareTo(RingId o) {
+        return space.compare(limbs, 0, o.limbs, 0);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (o == null || !(o instanceof RingId)) {
+            return false;
+        }
+        RingId r = (RingId) o;
+        return Arrays.equals(r.limbs, limbs) && r.space.equals(space);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(limbs);
+    }
+
+    /**
+     * Returns the decimal representation of this identifier.
+     * @return a String containing this identifier in base 10.
+     */
+    @Override
+    public String toString() {
+        return toBigInteger().toString();
+    }
+}
@@ -2,8 +2,9 @@ package it.unipi.di.p2p;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSerializer;
 
-import java.math.BigInteger;
 import java.util.ArrayList;
 
 /**
@@ -21,7 +22,7 @@ public class RouteLogger {
     /**
      * List of hops of the query.
      */
-    private ArrayList<BigInteger> hops;
+    private ArrayList<RingId> hops;
     /**
      * Number of hops of the query.
      */
@@ -29,11 +30,11 @@ public class RouteLogger {
     /**
      * Hash of the last Node of the query, the one that satisfies the request.
      */
-    private BigInteger endNode = null;
+    private RingId endNode = null;
     /**
      * Hash of the first Node of the query, the one that sends the request.
      */
-    private BigInteger startNode;
+    private RingId startNode;
 
     /**
      * Constructor of the class.
@@ -41,7 +42,7 @@ public class RouteLogger {
      * @param toFind Hash of the key to be found in the query
      * @param startNode Hash of the first Node of the query
      */
-    public RouteLogger(BigInteger toFind, BigInteger startNode) {
+    public RouteLogger(RingId toFind, RingId startNode) {
         this.toFind = Util.bytesToHex(toFind.toByteArray());
         this.startNode = startNode;
         hops = new ArrayList<>();
@@ -51,7 +52,7 @@ public class RouteLogger {
      * Adds a single hop to the list.
      * @param currNode The node to be added to the hops' list
      */
-    public void addHop(BigInteger currNode) {
+    public void addHop(RingId currNode) {
         hops.add(currNode);
     }
 
@@ -59,7 +60,7 @@ public class RouteLogger {
      * Adds the exit node for the current query.
      * @param endNode The node that satisfies the query
      */
-    public void addEndNode(BigInteger endNode) {
+    public void addEndNode(RingId endNode) {
         this.endNode = endNode;
     }
 
@@ -75,7 +76,7 @@ public class RouteLogger {
      * Returns the list of hops of the query.
      * @return the list of hops of the query.
      */
-    public ArrayList<BigInteger> getHops() {
+    public ArrayList<RingId> getHops() {
         return hops;
     }
 
@@ -83,7 +84,7 @@ public class RouteLogger {
      * Returns the hash of the final node of the query.
      * @return the hash of the final node of the query.
      */
-    public BigInteger getEndNode() {
+    public RingId getEndNode() {
         return endNode;
     }
 
@@ -94,7 +95,11 @@ public class RouteLogger {
      */
     public String getJSON() {
         no_hops = hops.size();
-        Gson g = new GsonBuilder().setPrettyPrinting().create();
+        Gson g = new GsonBuilder()
+                .setPrettyPrinting()
+                .registerTypeAdapter(RingId.class, (JsonSerializer<RingId>) (id, type, ctx) ->
+                        new JsonPrimitive(id.toBigInteger()))
+                .create();
         return g.toJson(this);
     }
 }
@@ -0,0 +1,403 @@
+package it.unipi.di.p2p;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The identifiers of the nodes of an overlay, frozen into a flat, sorted array of limbs (see {@link IdSpace}).
+ *
+ * Nodes are referred to by their position (index) in the ring, so the node with index 0 has the lowest
+ * identifier and the successor of the node with index i has index {@code (i + 1) % size()}.
+ */
+public final class SortedRing {
+
+    /**
+     * The identifier space of the ring.
+     */
+    private final IdSpace space;
+    /**
+     * Number of limbs of each identifier.
+     */
+    private final int limbs;
+    /**
+     * Number of nodes in the ring.
+     */
+    private final int size;
+    /**
+     * The identifiers of the nodes, sorted in ascending order; node i starts at offset {@code i * limbs}.
+     */
+    private final long[] ids;
+
+    /**
+     * Constructor of the class. The identifiers must already be sorted and distinct, and the array is not copied.
+     *
+     * @param space The identifier space of the ring.
+     * @param ids The sorted identifiers of the nodes.
+     * @param size The number of nodes.
+     */
+    SortedRing(IdSpace space, long[] ids, int size) {
+        this.space = space;
+        this.limbs = space.getLimbs();
+        this.size = size;
+        this.ids = ids;
+    }
+
+    /**
+     * Sorts a set of distinct identifiers into a ring.
+     *
+     * @param space The identifier space of the ring.
+     * @param unsorted The identifiers, one after the other; the array is not modified.
+     * @param size The number of identifiers.
+     * @param order An array of at least {@code size} elements which, on return, holds the position that each
+     *              node of the ring had in {@code unsorted} (i.e. the ring's node i was node {@code order[i]}),
+     *              or null if not needed.
+     * @return the sorted ring.
+     */
+    public static SortedRing sort(IdSpace space, long[] unsorted, int size, int[] order) {
+        return sort(space, unsorted, size, order, null);
+    }
+
+    /**
+     * Sorts a set of distinct identifiers into a ring, using a pool to sort large inputs in parallel.
+     *
+     * @param space The identifier space of the ring.
+     * @param unsorted The identifiers, one after the other; the array is not modified.
+     * @param size The number of identifiers.
+     * @param order An array of at least {@code size} elements which, on return, holds the position that each
+     *              node of the ring had in {@code unsorted}, or null if not needed.
+     * @param pool The pool used to sort, or null to sort in the current thread.
+     * @return the sorted ring.
+     */
+    public static SortedRing sort(IdSpace space, long[] unsorted, int size, int[] order, ForkJoinPool pool) {
+        int limbs = space.getLimbs();
+        int[] perm = (order != null) ? order : new int[size];
+        for (int i = 0; i < size; i++) {
+            perm[i] = i;
+        }
+        int[] tmp = new int[size];
+        if (pool == null) {
+            mergeSort(space, unsorted, perm, tmp, 0, size);
+        } else {
+            pool.invoke(new ParallelMergeSort(space, unsorted, perm, tmp, 0, size));
+        }
+        long[] ids = new long[size * limbs];
+        for (int i = 0; i < size; i++) {
+            System.arraycopy(unsorted, perm[i] * limbs, ids, i * limbs, limbs);
+        }
+        return new SortedRing(space, ids, size);
+    }
+
+    /**
+     * Sorts a range of a permutation by the identifiers its elements point to.
+     *
+     * @param space The identifier space of the ring.
+     * @param ids The identifiers to be compared.
+     * @param perm The permutation to be sorted.
+     * @param tmp A scratch array as big as the permutation.
+     * @param from The first index of the range (inclusive).
+     * @param to The last index of the range (exclusive).
+     */
+    private static void mergeSort(IdSpace space, long[] ids, int[] perm, int[] tmp, int from, int to) {
+        if (to - from < 16) {
+            // Insertion sort for small ranges
+            int limbs = space.getLimbs();
+            for (int i = from + 1; i < to; i++) {
+                int p = perm[i], j = i - 1;
+                while (j >= from && space.compare(ids, perm[j] * limbs, ids, p * limbs) > 0) {
+                    perm[j + 1] = perm[j];
+                    j--;
+                }
+                perm[j + 1] = p;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(space, ids, perm, tmp, from, mid);
+        mergeSort(space, ids, perm, tmp, mid, to);
+        merge(space, ids, perm, tmp, from, mid, to);
+    }
+
+    /**
+     * Merges two consecutive sorted ranges of a permutation.
+     *
+     * @param space The identifier space of the ring.
+     * @param ids The identifiers to be compared.
+     * @param perm The permutation to be sorted.
+     * @param tmp A scratch array as big as the permutation.
+     * @param from The first index of the first range (inclusive).
+     * @param mid The first index of the second range.
+     * @param to The last index of the second range (exclusive).
+     */
+    private static void merge(IdSpace space, long[] ids, int[] perm, int[] tmp, int from, int mid, int to) {
+        int limbs = space.getLimbs();
+        int i = from, j = mid, k = from;
+        while (i < mid && j < to) {
+            tmp[k++] = (space.compare(ids, perm[i] * limbs, ids, perm[j] * limbs) <= 0) ? perm[i++] : perm[j++];
+        }
+        while (i < mid) tmp[k++] = perm[i++];
+        while (j < to) tmp[k++] = perm[j++];
+        System.arraycopy(tmp, from, perm, from, to - from);
+    }
+
+    /**
+     * Sorts a range of a permutation on a {@link ForkJoinPool}, splitting it in halves until they are small
+     * enough to be sorted sequentially.
+     */
+    private static final class ParallelMergeSort extends RecursiveAction {
+
+        /**
+         * Version of the serialized form, which is never used.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Size under which ranges are sorted sequentially.
+         */
+        private static final int THRESHOLD = 1 << 13;
+
+        private final IdSpace space;
+        private final long[] ids;
+        private final int[] perm, tmp;
+        private final int from, to;
+
+        ParallelMergeSort(IdSpace space, long[] ids, int[] perm, int[] tmp, int from, int to) {
+            this.space = space;
+            this.ids = ids;
+            this.perm = perm;
+            this.tmp = tmp;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                mergeSort(space, ids, perm, tmp, from, to);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ParallelMergeSort(space, ids, perm, tmp, from, mid),
+                        new ParallelMergeSort(space, ids, perm, tmp, mid, to));
+                merge(space, ids, perm, tmp, from, mid, to);
+            }
+        }
+    }
+
+    /**
+     * Gets the identifier space of the ring.
+     * @return the identifier space of the ring.
+     */
+    public IdSpace getSpace() {
+        return space;
+    }
+
+    /**
+     * Gets the number of nodes in the ring.
+     * @return the number of nodes in the ring.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gives access to the flat array of identifiers. The returned array must not be modified.
+     * @return the identifiers of the nodes, one after the other.
+     */
+    long[] ids() {
+        return ids;
+    }
+
+    /**
+     * Gets the offset of the identifier of a node in the array returned by {@link #ids()}.
+     *
+     * @param node The index of the node.
+     * @return the offset of its identifier.
+     */
+    int offset(int node) {
+        return node * limbs;
+    }
+
+    /**
+     * Gets the identifier of a node as a {@link RingId}.
+     *
+     * @param node The index of the node.
+     * @return a new {@link RingId} holding the node's identifier.
+     */
+    public RingId getId(int node) {
+        long[] l = new long[limbs];
+        System.arraycopy(ids, node * limbs, l, 0, limbs);
+        return new RingId(space, l);
+    }
+
+    /**
+     * Finds the index of the first node whose identifier is greater than or equal to a key, wrapping around
+     * to the first node if there is none (i.e. the node responsible for the key).
+     *
+     * @param key The array holding the key.
+     * @param keyOff The offset of the key in its array.
+     * @return the index of the node responsible for the key.
+     */
+    public int successorIndex(long[] key, int keyOff) {
+        int rank = rank(key, keyOff);
+        return (rank == size) ? 0 : rank;
+    }
+
+    /**
+     * Counts the nodes whose identifier is lower than a key, i.e. finds the index a node with that key
+     * would have if it were inserted into the ring.
+     *
+     * @param key The array holding the key.
+     * @param keyOff The offset of the key in its array.
+     * @return the number of nodes whose identifier is lower than the key.
+     */
+    int rank(long[] key, int keyOff) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (space.compare(ids, mid * limbs, key, keyOff) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Creates the ring obtained by adding a node to this one. The indices of the nodes that follow the new
+     * one grow by one.
+     *
+     * @param key The array holding the identifier of the new node, which must not be in the ring.
+     * @param keyOff The offset of the identifier in its array.
+     * @param node The index of the new node, i.e. {@code rank(key, keyOff)}.
+     * @return the new ring.
+     */
+    SortedRing withInserted(long[] key, int keyOff, int node) {
+        long[] l = new long[(size + 1) * limbs];
+        System.arraycopy(ids, 0, l, 0, node * limbs);
+        System.arraycopy(key, keyOff, l, node * limbs, limbs);
+        System.arraycopy(ids, node * limbs, l, (node + 1) * limbs, (size - node) * limbs);
+        return new SortedRing(space, l, size + 1);
+    }
+
+    /**
+     * Creates the ring obtained by removing a node from this one. The indices of the nodes that follow the
+     * removed one decrease by one.
+     *
+     * @param node The index of the node to be removed.
+     * @return the new ring.
+     */
+    SortedRing withRemoved(int node) {
+        long[] l = new long[(size - 1) * limbs];
+        System.arraycopy(ids, 0, l, 0, node * limbs);
+        System.arraycopy(ids, (node + 1) * limbs, l, node * limbs, (size - node - 1) * limbs);
+        return new SortedRing(space, l, size - 1);
+    }
+
+    /**
+     * Finds the index of the node with a given identifier.
+     *
+     * @param key The array holding the identifier.
+     * @param keyOff The offset of the identifier in its array.
+     * @return the index of the node, or -1 if no node has that identifier.
+     */
+    public int indexOf(long[] key, int keyOff) {
+        int i = successorIndex(key, keyOff);
+        return (size > 0 && space.compare(ids, i * limbs, key, keyOff) == 0) ? i : -1;
+    }
+
+    /**
+     * Finds the index of the node with a given identifier.
+     *
+     * @param id The identifier of the node.
+     * @return the index of the node, or -1 if no node has that identifier.
+     */
+    public int indexOf(RingId id) {
+        return indexOf(id.limbs(), 0);
+    }
+
+    /**
+     * Creates a sweep that computes the finger tables of consecutive nodes, starting from a given one.
+     *
+     * @param startNode The index of the first node whose finger table is computed.
+     * @return a new {@link FingerSweep}.
+     */
+    public FingerSweep fingerSweep(int startNode) {
+        return new FingerSweep(startNode);
+    }
+
+    /**
+     * Computes the finger tables of consecutive nodes of the ring.
+     *
+     * Finger i of node n is the node responsible for {@code id(n) + 2^i}. Since these targets move clockwise
+     * around the ring as n does, the sweep keeps one pointer per finger index and only moves it forward
+     * from one node to the next, so that the finger tables of all the nodes are computed in O(size * bits)
+     * steps (plus one binary search per finger index for the first node) without allocating any memory.
+     */
+    public final class FingerSweep {
+
+        /**
+         * The index of the node whose finger table is computed next.
+         */
+        private int node;
+        /**
+         * For each finger index, the last node found.
+         */
+        private final int[] pointers;
+        /**
+         * Scratch space for the target of the current finger.
+         */
+        private final long[] target;
+
+        /**
+         * Constructor of the class.
+         *
+         * @param startNode The index of the first node whose finger table is computed.
+         */
+        private FingerSweep(int startNode) {
+            int bits = space.getBits();
+            this.node = startNode;
+            this.pointers = new int[bits];
+            this.target = new long[limbs];
+            if (size > 1) {
+                for (int i = 0; i < bits; i++) {
+                    space.addPowerOfTwo(ids, startNode * limbs, i, target, 0);
+                    pointers[i] = successorIndex(target, 0);
+                }
+            }
+        }
+
+        /**
+         * Computes the finger table of the current node and moves on to the next one.
+         *
+         * @param fingers An array of at least {@code bits} elements, where the indices of the fingers
+         *                of the current node are stored.
+         * @return the index of the node whose finger table has been computed.
+         */
+        public int next(int[] fingers) {
+            int bits = space.getBits();
+            int current = node;
+            if (size == 1) {
+                for (int i = 0; i < bits; i++) {
+                    fingers[i] = 0;
+                }
+            } else {
+                for (int i = 0; i < bits; i++) {
+                    space.addPowerOfTwo(ids, current * limbs, i, target, 0);
+                    int p = pointers[i];
+                    // Move forward until the target falls in (predecessor(p), p]
+                    for (int steps = 0; steps < size; steps++) {
+                        int prev = (p == 0) ? size - 1 : p - 1;
+                        if (Util.isInInterval(true, space, target, 0, ids, prev * limbs, ids, p * limbs)) {
+                            break;
+                        }
+                        p = (p + 1 == size) ? 0 : p + 1;
+                    }
+                    pointers[i] = p;
+                    fingers[i] = p;
+                }
+            }
+            node = (current + 1 == size) ? 0 : current + 1;
+            return current;
+        }
+    }
+}
@@ -0,0 +1,570 @@
+package it.unipi.di.p2p;
+
+import java.util.BitSet;
+import java.util.SplittableRandom;
+
+/**
+ * A discrete-event simulation of Chord's periodic maintenance protocol, on an overlay whose nodes join over
+ * time and whose routing state is only repaired by the protocol itself.
+ *
+ * The simulation draws its nodes from the identifiers of a {@link SortedRing}: some of them start in the
+ * overlay, with exact successors, predecessors and fingers, and the others join it one at a time, as a
+ * Poisson process with a given rate. A joining node only learns its successor, by asking a random node of the
+ * overlay to find it, as in Chord's specification paper; from then on, every node periodically runs
+ * {@code stabilize} (asking its successor for its predecessor, adopting it as its successor if it lies in
+ * between, and notifying the successor of itself) and {@code fix_fingers} (refreshing the next finger of its
+ * table with a lookup). The period of each node is the stabilization interval, jittered by up to half of it
+ * so that the nodes don't run in lockstep.
+ *
+ * Meanwhile, lookups for random keys are issued by random nodes, as another Poisson process, and routed with
+ * the state of the nodes at that moment; a lookup is correct if it ends at the node that is actually
+ * responsible for the key. Lookups are iterative, so each hop costs a request and a reply; each remote step of
+ * the protocol is also a request and a reply, except notifications, which have no reply. Remote calls are
+ * assumed to complete well within the stabilization interval, so each round of the protocol is applied at the
+ * time of its timer.
+ *
+ * The state of the nodes is kept in arrays indexed by the nodes' indices in the ring, with -1 for unknown
+ * nodes. Times are in microseconds. Events are handled by an {@link EventScheduler}.
+ */
+public final class StabilizationSimulation {
+
+    /**
+     * Event: a node runs a round of the maintenance protocol.
+     */
+    private static final int TIMER = 0;
+    /**
+     * Event: a new node joins the overlay.
+     */
+    private static final int JOIN = 1;
+    /**
+     * Event: a lookup is issued.
+     */
+    private static final int LOOKUP = 2;
+    /**
+     * The length of the windows the statistics are reported in, in microseconds.
+     */
+    private static final long WINDOW = 1000000;
+
+    /**
+     * The identifier space of the ring.
+     */
+    private final IdSpace space;
+    /**
+     * The ring the nodes are drawn from.
+     */
+    private final SortedRing ring;
+    /**
+     * The identifiers of the nodes.
+     */
+    private final long[] ids;
+    /**
+     * Number of limbs of each identifier.
+     */
+    private final int limbs;
+    /**
+     * Number of bits of each identifier, i.e. number of fingers of each node.
+     */
+    private final int bits;
+    /**
+     * Number of nodes in the ring.
+     */
+    private final int size;
+    /**
+     * The period of the maintenance protocol.
+     */
+    private final long interval;
+
+    /**
+     * The nodes that are part of the overlay.
+     */
+    private BitSet alive;
+    /**
+     * The indices of the nodes that are part of the overlay, in the order they joined it.
+     */
+    private int[] members;
+    /**
+     * Number of nodes that are part of the overlay.
+     */
+    private int memberCount;
+    /**
+     * The successor of each node, as known by the node itself.
+     */
+    private int[] successors;
+    /**
+     * The predecessor of each node, as known by the node itself.
+     */
+    private int[] predecessors;
+    /**
+     * The fingers of each node, as known by the node itself, {@link #bits} for each node.
+     */
+    private int[] fingers;
+    /**
+     * For each node, the last finger refreshed by {@code fix_fingers}.
+     */
+    private int[] nextFingers;
+    /**
+     * A scratch buffer for the targets of the fingers.
+     */
+    private long[] target;
+    /**
+     * Number of hops of the last call to {@link #findSuccessor(int, long[], int)}.
+     */
+    private int lastHops;
+
+    /**
+     * Number of nodes at the start of the last run.
+     */
+    private int initialNodes;
+    /**
+     * The duration of the last run.
+     */
+    private long duration;
+    /**
+     * Number of events handled.
+     */
+    private long events;
+    /**
+     * Number of messages sent by the maintenance protocol and by the joining nodes.
+     */
+    private long maintenanceMessages;
+    /**
+     * Number of messages sent by the lookups.
+     */
+    private long lookupMessages;
+    /**
+     * Number of lookups issued.
+     */
+    private long lookups;
+    /**
+     * Number of lookups that ended at the right node.
+     */
+    private long correctLookups;
+    /**
+     * The sum of the nodes' time in the overlay, in microseconds.
+     */
+    private long nodeTime;
+    /**
+     * For each window, the number of nodes in the overlay at its end.
+     */
+    private int[] windowNodes;
+    /**
+     * For each window, the number of lookups issued.
+     */
+    private long[] windowLookups;
+    /**
+     * For each window, the number of correct lookups.
+     */
+    private long[] windowCorrect;
+    /**
+     * For each window, the number of messages of the maintenance protocol.
+     */
+    private long[] windowMessages;
+
+    /**
+     * Constructor of the class.
+     *
+     * @param ring The identifiers of the nodes that may take part in the overlay.
+     * @param interval The period of the maintenance protocol, in microseconds.
+     */
+    public StabilizationSimulation(SortedRing ring, long interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("The stabilization interval must be positive");
+        }
+        this.space = ring.getSpace();
+        this.ring = ring;
+        this.ids = ring.ids();
+        this.limbs = space.getLimbs();
+        this.bits = space.getBits();
+        this.size = ring.size();
+        this.interval = interval;
+    }
+
+    /**
+     * Runs the simulation for a given time.
+     *
+     * @param initial The number of nodes that start in the overlay, with exact routing state; at least one.
+     * @param joinRate The rate at which the other nodes join the overlay, in nodes per second.
+     * @param lookupRate The rate at which the lookups are issued, in lookups per second.
+     * @param duration The simulated time, in microseconds.
+     * @param random The random stream the nodes, the keys and the timers are drawn from.
+     */
+    public void run(int initial, double joinRate, double lookupRate, long duration, SplittableRandom random) {
+        if (initial < 1 || initial > size) {
+            throw new IllegalArgumentException("Invalid number of initial nodes: " + initial);
+        }
+        if (joinRate < 0 || lookupRate < 0) {
+            throw new IllegalArgumentException("The rates must not be negative");
+        }
+        SplittableRandom arrivals = random.split(), timers = random.split();
+        // The nodes in a random order: the first ones start in the overlay, the others join it in order
+        members = new int[size];
+        for (int i = 0; i < size; i++) {
+            members[i] = i;
+        }
+        for (int i = size - 1; i > 0; i--) {
+            int j = arrivals.nextInt(i + 1);
+            int tmp = members[i];
+            members[i] = members[j];
+            members[j] = tmp;
+        }
+        memberCount = initial;
+        alive = new BitSet(size);
+        for (int i = 0; i < initial; i++) {
+            alive.set(members[i]);
+        }
+        successors = new int[size];
+        predecessors = new int[size];
+        fingers = new int[size * bits];
+        nextFingers = new int[size];
+        target = new long[limbs];
+        initializeState();
+
+        this.initialNodes = initial;
+        this.duration = duration;
+        int windows = (int) Math.max(1, (duration + WINDOW - 1) / WINDOW);
+        windowNodes = new int[windows];
+        windowLookups = new long[windows];
+        windowCorrect = new long[windows];
+        windowMessages = new long[windows];
+        events = 0;
+        maintenanceMessages = 0;
+        lookupMessages = 0;
+        lookups = 0;
+        correctLookups = 0;
+        nodeTime = 0;
+
+        EventScheduler scheduler = new EventScheduler(size + 2);
+        for (int i = 0; i < initial; i++) {
+            scheduler.schedule(timers.nextLong(interval), TIMER, members[i], 0);
+        }
+        if (joinRate > 0 && initial < size) {
+            scheduler.schedule(nextArrival(arrivals, joinRate), JOIN, 0, 0);
+        }
+        if (lookupRate > 0) {
+            scheduler.schedule(nextArrival(arrivals, lookupRate), LOOKUP, 0, 0);
+        }
+        long[] key = new long[limbs];
+        long last = 0;
+        while (scheduler.peekTime() <= duration && scheduler.poll()) {
+            events++;
+            long now = scheduler.getTime();
+            int window = (int) Math.min(windows - 1, now / WINDOW), node = scheduler.getNode();
+            nodeTime += memberCount * (now - last);
+            last = now;
+            switch (scheduler.getKind()) {
+                case TIMER:
+                    long messages = maintenanceMessages;
+                    stabilize(node);
+                    fixFingers(node);
+                    windowMessages[window] += maintenanceMessages - messages;
+                    scheduler.schedule(now + interval / 2 + timers.nextLong(interval), TIMER, node, 0);
+                    break;
+                case JOIN:
+                    int joining = members[memberCount];
+                    long before = maintenanceMessages;
+                    join(joining, members[arrivals.nextInt(memberCount)]);
+                    windowMessages[window] += maintenanceMessages - before;
+                    memberCount++;
+                    alive.set(joining);
+                    scheduler.schedule(now + timers.nextLong(interval), TIMER, joining, 0);
+                    if (memberCount < size) {
+                        scheduler.schedule(now + nextArrival(arrivals, joinRate), JOIN, 0, 0);
+                    }
+                    break;
+                case LOOKUP:
+                    int origin = members[arrivals.nextInt(memberCount)];
+                    for (int k = 0; k < limbs; k++) {
+                        key[k] = arrivals.nextLong();
+                    }
+                    key[0] &= space.getTopMask();
+                    int owner = findSuccessor(origin, key, 0);
+                    lookups++;
+                    windowLookups[window]++;
+                    lookupMessages += 2L * lastHops;
+                    if (owner == trueSuccessor(key, 0)) {
+                        correctLookups++;
+                        windowCorrect[window]++;
+                    }
+                    scheduler.schedule(now + nextArrival(arrivals, lookupRate), LOOKUP, 0, 0);
+                    break;
+                default:
+                    throw new AssertionError("Unknown event");
+            }
+            windowNodes[window] = memberCount;
+        }
+        nodeTime += memberCount * (duration - last);
+        for (int w = 1; w < windows; w++) {
+            if (windowNodes[w] == 0) {
+                windowNodes[w] = windowNodes[w - 1];
+            }
+        }
+        if (windowNodes[0] == 0) {
+            windowNodes[0] = initial;
+        }
+    }
+
+    /**
+     * Draws the time between two arrivals of a Poisson process.
+     *
+     * @param r The random stream.
+     * @param rate The rate of the process, per second.
+     * @return the time to the next arrival, in microseconds.
+     */
+    private static long nextArrival(SplittableRandom r, double rate) {
+        return Math.round(-Math.log(1.0 - r.nextDouble()) * 1e6 / rate);
+    }
+
+    /**
+     * Gives the initial nodes their exact successors, predecessors and fingers. The fingers closer than the
+     * successor are the successor itself, so only the farthest ones need a search.
+     */
+    private void initializeState() {
+        int first = alive.nextSetBit(0), previous = alive.previousSetBit(size - 1);
+        for (int n = first; n >= 0; n = alive.nextSetBit(n + 1)) {
+            int s = alive.nextSetBit(n + 1);
+            if (s < 0) {
+                s = first;
+            }
+            successors[n] = s;
+            predecessors[n] = previous;
+            previous = n;
+            nextFingers[n] = -1;
+            for (int i = 0; i < bits; i++) {
+                space.addPowerOfTwo(ids, n * limbs, i, target, 0);
+                fingers[n * bits + i] = (s == n || Util.isInInterval(true, space, target, 0, ids, n * limbs, ids, s * limbs))
+                        ? s : trueSuccessor(target, 0);
+            }
+        }
+    }
+
+    /**
+     * Finds the node of the overlay that is actually responsible for a key.
+     *
+     * @param key The array holding the key.
+     * @param keyOff The offset of the key in its array.
+     * @return the index of the first node of the overlay whose identifier is not lower than the key, wrapping
+     * around the ring.
+     */
+    private int trueSuccessor(long[] key, int keyOff) {
+        int n = alive.nextSetBit(ring.successorIndex(key, keyOff));
+        return (n >= 0) ? n : alive.nextSetBit(0);
+    }
+
+    /**
+     * Finds the node responsible for a key, starting from a node and following the routing state of the
+     * nodes, as in Chord's iterative lookup. The number of hops is stored in {@link #lastHops}.
+     *
+     * @param start The index of the node the lookup starts from.
+     * @param key The array holding the key.
+     * @param keyOff The offset of the key in its array.
+     * @return the index of the node the lookup ends at.
+     */
+    private int findSuccessor(int start, long[] key, int keyOff) {
+        int n = start;
+        lastHops = 0;
+        while (true) {
+            int s = successors[n];
+            if (s == n || Util.isInInterval(true, space, key, keyOff, ids, n * limbs, ids, s * limbs)) {
+                return s;
+            }
+            n = closestPrecedingNode(n, key, keyOff);
+            lastHops++;
+        }
+    }
+
+    /**
+     * Finds the farthest node known by a node that precedes a key, falling back to its successor. Since the
+     * successor never follows the key when this is called, each hop moves the lookup clockwise towards it.
+     *
+     * @param node The index of the node.
+     * @param key The array holding the key.
+     * @param keyOff The offset of the key in its array.
+     * @return the index of the next node of the lookup.
+     */
+    private int closestPrecedingNode(int node, long[] key, int keyOff) {
+        int checked = -1;
+        for (int i = bits - 1; i >= 0; i--) {
+            int f = fingers[node * bits + i];
+            if (f >= 0 && f != checked && f != node) {
+                if (Util.isInInterval(false, space, ids, f * limbs, ids, node * limbs, key, keyOff)) {
+                    return f;
+                }
+                checked = f;
+            }
+        }
+        return successors[node];
+    }
+
+    /**
+     * Makes a node join the overlay: it asks a node of the overlay to find its successor, and knows nothing
+     * else.
+     *
+     * @param node The index of the joining node.
+     * @param bootstrap The index of the node of the overlay it contacts.
+     */
+    private void join(int node, int bootstrap) {
+        int s = findSuccessor(bootstrap, ids, node * limbs);
+        // The request to the bootstrap node, the hops, and the reply
+        maintenanceMessages += 2L * lastHops + 2;
+        successors[node] = s;
+        predecessors[node] = -1;
+        nextFingers[node] = -1;
+        for (int i = 0; i < bits; i++) {
+            fingers[node * bits + i] = -1;
+        }
+    }
+
+    /**
+     * Runs {@code stabilize}: a node asks its successor for its predecessor, adopts it as its successor if it
+     * lies between them, and notifies the successor of itself.
+     *
+     * @param node The index of the node.
+     */
+    private void stabilize(int node) {
+        int s = successors[node];
+        int x = predecessors[s];
+        if (s != node) {
+            maintenanceMessages += 2;
+        }
+        if (x >= 0 && x != node
+                && (s == node || Util.isInInterval(false, space, ids, x * limbs, ids, node * limbs, ids, s * limbs))) {
+            successors[node] = s = x;
+        }
+        if (s != node) {
+            maintenanceMessages++;
+            notify(s, node);
+        }
+    }
+
+    /**
+     * Runs {@code notify}: a node learns that another one might be its predecessor.
+     *
+     * @param node The index of the notified node.
+     * @param candidate The index of the node that might be its predecessor.
+     */
+    private void notify(int node, int candidate) {
+        int p = predecessors[node];
+        if (p < 0 || p == node || Util.isInInterval(false, space, ids, candidate * limbs, ids, p * limbs, ids, node * limbs)) {
+            predecessors[node] = candidate;
+        }
+    }
+
+    /**
+     * Runs {@code fix_fingers}: a node refreshes the next finger of its table, looking up its target.
+     *
+     * @param node The index of the node.
+     */
+    private void fixFingers(int node) {
+        int next = nextFingers[node] + 1;
+        if (next == bits) {
+            next = 0;
+        }
+        nextFingers[node] = next;
+        space.addPowerOfTwo(ids, node * limbs, next, target, 0);
+        fingers[node * bits + next] = findSuccessor(node, target, 0);
+        maintenanceMessages += 2L * lastHops;
+    }
+
+    /**
+     * Gets the number of events handled by the last run.
+     * @return the number of events.
+     */
+    public long getEvents() {
+        return events;
+    }
+
+    /**
+     * Gets the number of messages sent by the maintenance protocol, and by the joining nodes, during the last
+     * run.
+     * @return the number of messages.
+     */
+    public long getMaintenanceMessages() {
+        return maintenanceMessages;
+    }
+
+    /**
+     * Gets the average number of maintenance messages sent by a node per second during the last run.
+     * @return the number of messages per node per second.
+     */
+    public double getMessageRate() {
+        return (nodeTime > 0) ? maintenanceMessages * 1e6 / nodeTime : 0.0;
+    }
+
+    /**
+     * Gets the fraction of the lookups of the last run that ended at the right node.
+     * @return the fraction of correct lookups, or 1 if there were none.
+     */
+    public double getCorrectness() {
+        return (lookups > 0) ? ((double) correctLookups) / lookups : 1.0;
+    }
+
+    /**
+     * Gets the number of nodes in the overlay at the end of the last run.
+     * @return the number of nodes.
+     */
+    public int getNodes() {
+        return memberCount;
+    }
+
+    /**
+     * Counts the nodes whose successor is right, at the end of the last run.
+     * @return the number of nodes with the right successor.
+     */
+    public int countCorrectSuccessors() {
+        int first = alive.nextSetBit(0), correct = 0;
+        for (int n = first; n >= 0; n = alive.nextSetBit(n + 1)) {
+            int s = alive.nextSetBit(n + 1);
+            if (successors[n] == ((s >= 0) ? s : first)) {
+                correct++;
+            }
+        }
+        return correct;
+    }
+
+    /**
+     * Counts the fingers that point to the right node, at the end of the last run.
+     * @return the number of right fingers.
+     */
+    public long countCorrectFingers() {
+        long correct = 0;
+        for (int n = alive.nextSetBit(0); n >= 0; n = alive.nextSetBit(n + 1)) {
+            for (int i = 0; i < bits; i++) {
+                space.addPowerOfTwo(ids, n * limbs, i, target, 0);
+                if (fingers[n * bits + i] == trueSuccessor(target, 0)) {
+                    correct++;
+                }
+            }
+        }
+        return correct;
+    }
+
+    /**
+     * Outputs the statistics of the last run in CSV format: a summary, followed by the lookups and the
+     * maintenance messages of each second of simulated time.
+     *
+     * @return A {@link String} containing the statistics of the last run, in CSV format.
+     */
+    public String toCSV() {
+        StringBuilder sb = new StringBuilder();
+        sb
+                .append("stabilization_interval_ms,").append(interval / 1000.0).append('\n')
+                .append("simulated_time_ms,").append(duration / 1000.0).append('\n')
+                .append("initial_nodes,").append(initialNodes).append('\n')
+                .append("final_nodes,").append(memberCount).append('\n')
+                .append("events,").append(events).append('\n')
+                .append("maintenance_messages,").append(maintenanceMessages).append('\n')
+                .append("maintenance_messages_per_node_per_s,").append(getMessageRate()).append('\n')
+                .append("lookups,").append(lookups).append('\n')
+                .append("lookup_messages,").append(lookupMessages).append('\n')
+                .append("lookup_correctness,").append(getCorrectness()).append('\n')
+                .append("correct_successors,").append(((double) countCorrectSuccessors()) / memberCount).append('\n')
+                .append("correct_fingers,").append(((double) countCorrectFingers()) / memberCount / bits).append('\n');
+
+        sb.append('\n').append("time_s,nodes,lookups,correct_lookups,maintenance_messages").append('\n');
+        for (int w = 0; w < windowNodes.length; w++) {
+            sb.append(w).append(',').append(windowNodes[w]).append(',').append(windowLookups[w]).append(',')
+                    .append(windowCorrect[w]).append(',').append(windowMessages[w]).append('\n');
+        }
+        return sb.toString();
+    }
+}
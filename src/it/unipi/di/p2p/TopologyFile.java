@@ -0,0 +1,434 @@
+package it.unipi.di.p2p;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A topology (the identifiers of the nodes and their finger tables) stored in a compact binary format, so that
+ * an overlay can be saved once and reopened without building it again.
+ *
+ * The file is made of the following sections, all big-endian and with no padding:
+ * <ul>
+ *     <li>a header: the magic number {@code "CHRD"}, the format version, the number of bits of the
+ *     identifiers, the number of nodes and the total number of finger runs (all 4-byte integers);</li>
+ *     <li>the identifiers of the nodes in ascending order, each one as {@code ceil(bits / 64)} 8-byte limbs,
+ *     most significant first (see {@link IdSpace});</li>
+ *     <li>the finger tables, compressed into runs as in {@link FingerStore}: the position of the first run of
+ *     each node followed by the total number of runs (4-byte integers), the index of the node each run points
+ *     to (4-byte integers) and the first finger of each run (2-byte integers).</li>
+ * </ul>
+ *
+ * Files are written through a small buffer, and read through a {@link MappedByteBuffer} with bulk copies
+ * straight into the arrays used by {@link LookupEngine}, so a loaded topology can be queried right away.
+ * The class also converts between this format and the CSV one of {@link TopologyWriter}.
+ */
+public final class TopologyFile {
+
+    /**
+     * The magic number at the beginning of the file ("CHRD").
+     */
+    private static final int MAGIC = 0x43485244;
+    /**
+     * The version of the format.
+     */
+    private static final int VERSION = 1;
+    /**
+     * Size of the header, in bytes.
+     */
+    private static final int HEADER_SIZE = 5 * Integer.BYTES;
+    /**
+     * Size of the buffer used to write the file, in bytes.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The identifiers of the nodes.
+     */
+    private final SortedRing ring;
+    /**
+     * The finger tables of the nodes.
+     */
+    private final FingerStore fingers;
+
+    /**
+     * Constructor of the class.
+     *
+     * @param ring The identifiers of the nodes.
+     * @param fingers The finger tables of the nodes.
+     */
+    public TopologyFile(SortedRing ring, FingerStore fingers) {
+        this.ring = ring;
+        this.fingers = fingers;
+    }
+
+    /**
+     * Gets the identifiers of the nodes.
+     * @return the identifiers of the nodes.
+     */
+    public SortedRing getRing() {
+        return ring;
+    }
+
+    /**
+     * Gets the finger tables of the nodes.
+     * @return the finger tables of the nodes.
+     */
+    public FingerStore getFingers() {
+        return fingers;
+    }
+
+    /**
+     * Creates an engine to route queries on this topology.
+     * @return a new {@link LookupEngine} working on this topology.
+     */
+    public LookupEngine newLookupEngine() {
+        return new LookupEngine(ring, fingers);
+    }
+
+    /**
+     * Writes this topology to a file in the binary format, replacing it if it exists.
+     *
+     * @param path The path of the file.
+     * @throws IOException If the file can't be written.
+     */
+    public void write(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+            int nodes = ring.size(), runs = fingers.runs();
+            buf.putInt(MAGIC).putInt(VERSION).putInt(ring.getSpace().getBits()).putInt(nodes).putInt(runs);
+
+            long[] ids = ring.ids();
+            for (int i = 0; i < nodes * ring.getSpace().getLimbs(); i++) {
+                ensure(ch, buf, Long.BYTES).putLong(ids[i]);
+            }
+            for (int node = 0; node < nodes; node++) {
+                ensure(ch, buf, Integer.BYTES).putInt(fingers.start(node));
+            }
+            ensure(ch, buf, Integer.BYTES).putInt(runs);
+            for (int r = 0; r < runs; r++) {
+                ensure(ch, buf, Integer.BYTES).putInt(fingers.target(r));
+            }
+            for (int r = 0; r < runs; r++) {
+                ensure(ch, buf, Short.BYTES).putShort((short) fingers.firstFinger(r));
+            }
+            flush(ch, buf);
+        }
+    }
+
+    /**
+     * Makes room in the write buffer, flushing it to the channel if needed.
+     *
+     * @param ch The channel the buffer is flushed to.
+     * @param buf The buffer.
+     * @param bytes The number of bytes that must fit in the buffer.
+     * @return the buffer.
+     * @throws IOException If the buffer can't be flushed.
+     */
+    private static ByteBuffer ensure(FileChannel ch, ByteBuffer buf, int bytes) throws IOException {
+        if (buf.remaining() < bytes) {
+            flush(ch, buf);
+        }
+        return buf;
+    }
+
+    /**
+     * Writes the content of the write buffer to the channel and clears the buffer.
+     *
+     * @param ch The channel the buffer is flushed to.
+     * @param buf The buffer.
+     * @throws IOException If the buffer can't be written.
+     */
+    private static void flush(FileChannel ch, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+        buf.clear();
+    }
+
+    /**
+     * Loads a topology from a file in the binary format, mapping it into memory.
+     *
+     * @param path The path of the file.
+     * @return the loaded topology.
+     * @throws IOException If the file can't be read, or if it is not a valid topology file.
+     */
+    public static TopologyFile load(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Topology file too large to be mapped: " + path);
+            }
+            if (size < HEADER_SIZE) {
+                throw new IOException("Not a topology file: " + path);
+            }
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buf.getInt() != MAGIC) {
+                throw new IOException("Not a topology file: " + path);
+            }
+            int version = buf.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported topology file version " + version + ": " + path);
+            }
+            int bits = buf.getInt(), nodes = buf.getInt(), runs = buf.getInt();
+            if (bits < 1 || bits > 512 || nodes < 1 || runs < nodes) {
+                throw new IOException("Corrupted topology file header: " + path);
+            }
+            IdSpace space = new IdSpace(bits);
+            long expected = HEADER_SIZE + (long) nodes * space.getLimbs() * Long.BYTES
+                    + (nodes + 1L) * Integer.BYTES + (long) runs * (Integer.BYTES + Short.BYTES);
+            if (size != expected) {
+                throw new IOException("Topology file is " + size + " bytes instead of the " + expected
+                        + " of its header: " + path);
+            }
+
+            long[] ids = new long[nodes * space.getLimbs()];
+            buf.asLongBuffer().get(ids);
+            buf.position(buf.position() + ids.length * Long.BYTES);
+            int[] offsets = new int[nodes + 1];
+            buf.asIntBuffer().get(offsets);
+            buf.position(buf.position() + offsets.length * Integer.BYTES);
+            int[] targets = new int[runs];
+            buf.asIntBuffer().get(targets);
+            buf.position(buf.position() + targets.length * Integer.BYTES);
+            short[] firstFingers = new short[runs];
+            buf.asShortBuffer().get(firstFingers);
+
+            validate(space, ids, nodes, offsets, targets, firstFingers, path.toString());
+            return new TopologyFile(new SortedRing(space, ids, nodes), new FingerStore(bits, offsets, targets, firstFingers));
+        }
+    }
+
+    /**
+     * Writes this topology in the CSV format (see {@link TopologyWriter}).
+     *
+     * @param out The {@link Writer} the topology is written to; it should be buffered.
+     * @throws IOException If the topology can't be written.
+     */
+    public void writeCSV(Writer out) throws IOException {
+        new TopologyWriter(ring, fingers).write(out);
+    }
+
+    /**
+     * Reads a topology in the CSV format written by {@link TopologyWriter}.
+     *
+     * The number of bits of the identifiers is the number of lines of each node, and the finger tables are
+     * compressed into runs while they are read, so only the identifiers of the fingers that start a run
+     * are kept until all the nodes are known.
+     *
+     * @param in The {@link Reader} the topology is read from; it should be buffered.
+     * @return the topology.
+     * @throws IOException If the topology can't be read, or if it is not valid.
+     */
+    public static TopologyFile readCSV(Reader in) throws IOException {
+        BufferedReader br = (in instanceof BufferedReader) ? (BufferedReader) in : new BufferedReader(in);
+        String line = br.readLine();
+        if (line == null) {
+            throw new IOException("Empty topology");
+        }
+        // The first node tells the number of bits
+        String first = nodeOf(line);
+        String[] firstLines = new String[16];
+        int bits = 0;
+        while (line != null && nodeOf(line).equals(first)) {
+            if (bits == firstLines.length) {
+                firstLines = Arrays.copyOf(firstLines, bits * 2);
+            }
+            firstLines[bits++] = line;
+            line = br.readLine();
+        }
+        if (bits > 512) {
+            throw new IOException("Too many fingers for node " + first);
+        }
+        IdSpace space = new IdSpace(bits);
+        int limbs = space.getLimbs();
+
+        long[] ids = new long[64 * limbs];
+        int[] counts = new int[64];
+        long[] runIds = new long[256 * limbs];
+        short[] firstFingers = new short[256];
+        int nodes = 0, runs = 0;
+        String pending = null;
+        long[] previous = new long[limbs];
+        int fingerIndex = 0;
+
+        for (int l = 0; ; l++) {
+            String current = (l < bits) ? firstLines[l] : (l == bits ? line : br.readLine());
+            if (current == null) {
+                break;
+            }
+            String name = nodeOf(current);
+            if (!name.equals(pending)) {
+                if (pending != null && fingerIndex != bits) {
+                    throw new IOException("Node " + pending + " has " + fingerIndex + " fingers instead of " + bits);
+                }
+                if ((nodes + 1) * limbs > ids.length) {
+                    ids = Arrays.copyOf(ids, ids.length * 2);
+                    counts = Arrays.copyOf(counts, counts.length * 2);
+                }
+                parseId(space, name, 0, name.length(), ids, nodes * limbs);
+                if (nodes > 0 && space.compare(ids, (nodes - 1) * limbs, ids, nodes * limbs) >= 0) {
+                    throw new IOException("Nodes are not in ascending order at " + name);
+                }
+                nodes++;
+                pending = name;
+                fingerIndex = 0;
+            }
+            if (runs == firstFingers.length) {
+                runIds = Arrays.copyOf(runIds, runIds.length * 2);
+                firstFingers = Arrays.copyOf(firstFingers, firstFingers.length * 2);
+            }
+            parseId(space, current, name.length() + 1, current.length(), runIds, runs * limbs);
+            if (fingerIndex == 0 || space.compare(runIds, runs * limbs, previous, 0) != 0) {
+                System.arraycopy(runIds, runs * limbs, previous, 0, limbs);
+                firstFingers[runs++] = (short) fingerIndex;
+                counts[nodes - 1]++;
+            }
+            fingerIndex++;
+        }
+        if (fingerIndex != bits) {
+            throw new IOException("Node " + pending + " has " + fingerIndex + " fingers instead of " + bits);
+        }
+
+        SortedRing ring = new SortedRing(space, Arrays.copyOf(ids, nodes * limbs), nodes);
+        int[] offsets = new int[nodes + 1];
+        for (int i = 0; i < nodes; i++) {
+            offsets[i + 1] = offsets[i] + counts[i];
+        }
+        int[] targets = new int[runs];
+        for (int r = 0; r < runs; r++) {
+            targets[r] = ring.indexOf(runIds, r * limbs);
+            if (targets[r] < 0) {
+                throw new IOException("Finger to unknown node " + ring.getSpace().toBigInteger(runIds, r * limbs));
+            }
+        }
+        firstFingers = Arrays.copyOf(firstFingers, runs);
+        validate(space, ring.ids(), nodes, offsets, targets, firstFingers, "CSV topology");
+        return new TopologyFile(ring, new FingerStore(bits, offsets, targets, firstFingers));
+    }
+
+    /**
+     * Checks that a topology read from a file is consistent, so that a corrupted file is rejected before it
+     * reaches {@link LookupEngine}: the identifiers must fit the identifier space and be in strictly ascending
+     * order, and every node must have at least one finger run, whose first fingers start at 0 and strictly
+     * increase below the number of bits, pointing to existing nodes.
+     *
+     * @param space The identifier space of the topology.
+     * @param ids The identifiers of the nodes.
+     * @param nodes The number of nodes.
+     * @param offsets The position of the first run of each node, followed by the total number of runs.
+     * @param targets The index of the node each run points to.
+     * @param firstFingers The first finger of each run.
+     * @param source The name of the topology, used in the error messages.
+     * @throws IOException If the topology is not consistent.
+     */
+    private static void validate(IdSpace space, long[] ids, int nodes, int[] offsets, int[] targets,
+                                 short[] firstFingers, String source) throws IOException {
+        int limbs = space.getLimbs(), bits = space.getBits();
+        for (int i = 0; i < nodes; i++) {
+            if ((ids[i * limbs] & ~space.getTopMask()) != 0) {
+                throw new IOException("Identifier of node " + i + " is wider than " + bits + " bits: " + source);
+            }
+            if (i > 0 && space.compare(ids, (i - 1) * limbs, ids, i * limbs) >= 0) {
+                throw new IOException("Identifiers are not in ascending order at node " + i + ": " + source);
+            }
+        }
+        if (offsets[0] != 0) {
+            throw new IOException("Finger runs of node 0 start at " + offsets[0] + " instead of 0: " + source);
+        }
+        for (int i = 0; i < nodes; i++) {
+            if (offsets[i + 1] <= offsets[i]) {
+                throw new IOException("Node " + i + " has no finger runs: " + source);
+            }
+            if (offsets[i + 1] > targets.length) {
+                throw new IOException("Finger runs of node " + i + " go past the " + targets.length + " runs: "
+                        + source);
+            }
+            if (firstFingers[offsets[i]] != 0) {
+                throw new IOException("Finger runs of node " + i + " start at finger " + firstFingers[offsets[i]]
+                        + " instead of 0: " + source);
+            }
+            for (int r = offsets[i] + 1; r < offsets[i + 1]; r++) {
+                if (firstFingers[r] <= firstFingers[r - 1] || firstFingers[r] >= bits) {
+                    throw new IOException("Invalid first finger " + firstFingers[r] + " in run " + r + " of node " + i
+                            + ": " + source);
+                }
+            }
+        }
+        if (offsets[nodes] != targets.length) {
+            throw new IOException("Finger run offsets end at " + offsets[nodes] + " instead of " + targets.length
+                    + ": " + source);
+        }
+        for (int r = 0; r < targets.length; r++) {
+            if (targets[r] < 0 || targets[r] >= nodes) {
+                throw new IOException("Finger run " + r + " points to node " + targets[r] + " out of " + nodes
+                        + ": " + source);
+            }
+        }
+    }
+
+    /**
+     * Parses the hex representation of an identifier (see {@link Util#hexToId}).
+     *
+     * @param space The identifier space of the identifier.
+     * @param s The string holding the hex representation.
+     * @param from The position of the first character (inclusive).
+     * @param to The position of the last character (exclusive).
+     * @param dst The array where the identifier is stored.
+     * @param dstOff The offset of the identifier in its array.
+     * @throws IOException If the representation is not valid.
+     */
+    private static void parseId(IdSpace space, String s, int from, int to, long[] dst, int dstOff) throws IOException {
+        try {
+            Util.hexToId(space, s, from, to, dst, dstOff);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid identifier: " + s, e);
+        }
+    }
+
+    /**
+     * Gets the node of a line of the CSV format.
+     *
+     * @param line The line.
+     * @return the hex identifier of the node the line belongs to.
+     * @throws IOException If the line is not valid.
+     */
+    private static String nodeOf(String line) throws IOException {
+        int comma = line.indexOf(',');
+        if (comma <= 0 || comma == line.length() - 1) {
+            throw new IOException("Invalid topology line: " + line);
+        }
+        return line.substring(0, comma);
+    }
+
+    /**
+     * Converts topology files between the CSV and the binary formats.
+     *
+     * Usage: {@code TopologyFile tobinary <in.csv> <out.bin>} or {@code TopologyFile tocsv <in.bin> <out.csv>}.
+     *
+     * @param args The command line arguments.
+     * @throws IOException If a file can't be read or written.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3 || !(args[0].equals("tobinary") || args[0].equals("tocsv"))) {
+            System.out.println("Invalid invocation, please provide tobinary or tocsv, the input and the output file");
+            return;
+        }
+        if (args[0].equals("tobinary")) {
+            try (Reader in = new BufferedReader(new FileReader(args[1]), BUFFER_SIZE)) {
+                readCSV(in).write(Paths.get(args[2]));
+            }
+        } else {
+            try (Writer out = new BufferedWriter(new FileWriter(args[2]), BUFFER_SIZE)) {
+                load(Paths.get(args[1])).writeCSV(out);
+            }
+        }
+    }
+}
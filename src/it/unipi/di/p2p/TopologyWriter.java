@@ -0,0 +1,79 @@
+package it.unipi.di.p2p;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes the topology of an overlay, i.e. the finger tables of all its nodes, in a Comma-Separated Values
+ * (CSV) format, one line per finger: {@code nodeId,fingerId}, both in hexadecimal form (see
+ * {@link Util#bytesToHex_NoTrim(byte[])}).
+ *
+ * Lines are streamed to a {@link Writer} as they are produced, so the memory used does not depend on the
+ * size of the overlay. Each line is assembled into a reusable buffer: the identifier of a node is encoded
+ * once for all its fingers, and the identifier of a finger once for all the fingers of the same run
+ * (see {@link FingerStore}).
+ */
+public class TopologyWriter {
+
+    /**
+     * The identifiers of the nodes.
+     */
+    private final SortedRing ring;
+    /**
+     * The finger tables of the nodes.
+     */
+    private final FingerStore fingers;
+    /**
+     * Buffer holding the line being written.
+     */
+    private final char[] line;
+
+    /**
+     * Constructor of the class.
+     *
+     * @param ring The identifiers of the nodes.
+     * @param fingers The finger tables of the nodes.
+     */
+    public TopologyWriter(SortedRing ring, FingerStore fingers) {
+        this.ring = ring;
+        this.fingers = fingers;
+        int hexLength = 2 * (ring.getSpace().getBits() / 8 + 1);
+        this.line = new char[2 * hexLength + 2];
+    }
+
+    /**
+     * Writes the finger tables of all the nodes, in ascending order of identifier.
+     *
+     * @param out The {@link Writer} the topology is written to; it should be buffered.
+     * @throws IOException If the topology can't be written.
+     */
+    public void write(Writer out) throws IOException {
+        for (int node = 0; node < ring.size(); node++) {
+            writeNode(node, out);
+        }
+    }
+
+    /**
+     * Writes the finger table of a single node.
+     *
+     * @param node The index of the node.
+     * @param out The {@link Writer} the finger table is written to.
+     * @throws IOException If the finger table can't be written.
+     */
+    public void writeNode(int node, Writer out) throws IOException {
+        IdSpace space = ring.getSpace();
+        long[] ids = ring.ids();
+        int nameLength = Util.idToHex_NoTrim(space, ids, ring.offset(node), line, 0);
+        line[nameLength] = ',';
+        int end = fingers.end(node);
+        for (int r = fingers.start(node); r < end; r++) {
+            int length = nameLength + 1;
+            length += Util.idToHex_NoTrim(space, ids, ring.offset(fingers.target(r)), line, length);
+            line[length++] = '\n';
+            int last = (r + 1 < end) ? fingers.firstFinger(r + 1) : fingers.getBits();
+            for (int i = fingers.firstFinger(r); i < last; i++) {
+                out.write(line, 0, length);
+            }
+        }
+    }
+}
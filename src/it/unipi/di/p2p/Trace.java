@@ -0,0 +1,105 @@
+package it.unipi.di.p2p;
+
+import java.io.PrintStream;
+import java.util.function.Supplier;
+
+/**
+ * A minimal, leveled tracing facility for the diagnostic output of the simulation.
+ *
+ * Tracing is off by default. Messages are given as {@link Supplier}s, so they are only built when their
+ * level is enabled; hot loops should rather check {@link #isEnabled(Level)} once, outside the loop, so that
+ * not even the supplier gets allocated.
+ */
+public final class Trace {
+
+    /**
+     * The tracing levels, from the least to the most verbose.
+     */
+    public enum Level {
+        /**
+         * No output.
+         */
+        OFF,
+        /**
+         * The progress of each phase (see {@link ProgressReporter}).
+         */
+        INFO,
+        /**
+         * One line per node.
+         */
+        DEBUG,
+        /**
+         * One or more lines per query.
+         */
+        TRACE
+    }
+
+    /**
+     * The current level.
+     */
+    private static volatile Level level = Level.OFF;
+    /**
+     * The stream the messages are written to.
+     */
+    private static volatile PrintStream out = System.out;
+
+    /**
+     * This class only has static methods.
+     */
+    private Trace() {
+    }
+
+    /**
+     * Sets the tracing level.
+     * @param newLevel The new level.
+     */
+    public static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    /**
+     * Gets the tracing level.
+     * @return the current level.
+     */
+    public static Level getLevel() {
+        return level;
+    }
+
+    /**
+     * Sets the stream the messages are written to (by default, the standard output).
+     * @param stream The new stream.
+     */
+    public static void setOutput(PrintStream stream) {
+        out = stream;
+    }
+
+    /**
+     * Gets the stream the messages are written to.
+     * @return the stream the messages are written to.
+     */
+    public static PrintStream getOutput() {
+        return out;
+    }
+
+    /**
+     * Checks whether the messages of a given level are written.
+     *
+     * @param l The level of the messages.
+     * @return true if the messages of that level are written.
+     */
+    public static boolean isEnabled(Level l) {
+        return l != Level.OFF && l.compareTo(level) <= 0;
+    }
+
+    /**
+     * Writes a message, if its level is enabled.
+     *
+     * @param l The level of the message.
+     * @param message The supplier of the message, only called if the level is enabled.
+     */
+    public static void log(Level l, Supplier<String> message) {
+        if (isEnabled(l)) {
+            out.println(message.get());
+        }
+    }
+}
@@ -1,9 +1,7 @@
 package it.unipi.di.p2p;
 
-import org.apache.commons.codec.DecoderException;
-import org.apache.commons.codec.binary.Hex;
-
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Class that contains utility methods used in the application.
@@ -14,6 +12,16 @@ public class Util {
      * String used to convert byte arrays into hex strings
      */
     private final static char[] hexArray = "0123456789abcdef".toCharArray();
+    /**
+     * Maximum length of the representation of an address, i.e. of "255.255.255.255:65535"
+     */
+    public final static int MAX_ADDRESS_LENGTH = 21;
+
+    /**
+     * Maximum length of the "x.y.w.z:port#k" representation of a virtual node's address
+     * (see {@link #virtualAddressToBytes(long, int, byte[])}).
+     */
+    public final static int MAX_VIRTUAL_ADDRESS_LENGTH = MAX_ADDRESS_LENGTH + 11;
 
     /**
      * Converts a byte array into an hex string representation.
@@ -24,7 +32,13 @@ public class Util {
      * @return a String containing the byte representation in hexadecimal form.
      */
     public static String bytesToHex(byte[] bytes) {
-        return bytesToHex_NoTrim(bytes).replaceFirst("^0+(?!$)", "");
+        String hex = bytesToHex_NoTrim(bytes);
+        int start = 0;
+        // Keeps at least one digit
+        while (start < hex.length() - 1 && hex.charAt(start) == '0') {
+            start++;
+        }
+        return hex.substring(start);
     }
 
     /**
@@ -45,10 +59,142 @@ public class Util {
         return new String(hexChars);
     }
 
+    /**
+     * Converts an identifier into an hex string representation, writing its characters into a buffer.
+     *
+     * The characters are the same that {@code bytesToHex_NoTrim(space.toByteArray(id, idOff))} would give,
+     * i.e. no leading zeroes are removed and a leading zero byte is present whenever the topmost bit is set,
+     * but neither the byte array nor the string get allocated.
+     *
+     * @param space the identifier space of the identifier
+     * @param id the array holding the identifier
+     * @param idOff the offset of the identifier in its array
+     * @param dst the buffer where the characters are written, at least {@code 2 * (bits / 8 + 1)} long
+     * @param dstOff the position of the first character in the buffer
+     * @return the number of characters written.
+     */
+    public static int idToHex_NoTrim(IdSpace space, long[] id, int idOff, char[] dst, int dstOff) {
+        int len = space.bitLength(id, idOff) / 8 + 1;
+        for (int i = len - 1, j = dstOff; i >= 0; i--, j += 2) {
+            int v = space.byteAt(id, idOff, i) & 0xFF;
+            dst[j] = hexArray[v >>> 4];
+            dst[j + 1] = hexArray[v & 0x0F];
+        }
+        return len * 2;
+    }
+
+    /**
+     * Parses an hex string representation of an identifier, such as the ones given by
+     * {@link #idToHex_NoTrim(IdSpace, long[], int, char[], int)}, reducing it modulo 2^bits.
+     *
+     * @param space the identifier space of the identifier
+     * @param s the string holding the hex representation
+     * @param from the position of the first character (inclusive)
+     * @param to the position of the last character (exclusive)
+     * @param dst the array where the identifier is stored
+     * @param dstOff the offset of the identifier in its array
+     * @throws NumberFormatException if the characters are not all hex digits
+     */
+    public static void hexToId(IdSpace space, CharSequence s, int from, int to, long[] dst, int dstOff) {
+        int limbs = space.getLimbs();
+        for (int k = 0; k < limbs; k++) {
+            dst[dstOff + k] = 0;
+        }
+        for (int i = to - 1, nibble = 0; i >= from; i--, nibble++) {
+            int v = Character.digit(s.charAt(i), 16);
+            if (v < 0) {
+                throw new NumberFormatException("Invalid hex digit in " + s.subSequence(from, to));
+            }
+            int limb = limbs - 1 - (nibble >>> 4);
+            if (limb >= 0) {
+                dst[dstOff + limb] |= (long) v << ((nibble & 15) << 2);
+            }
+        }
+        dst[dstOff] &= space.getTopMask();
+    }
+
+    /**
+     * Packs an IPv4 address and a port into a single 48-bit value: the address takes the upper 32 bits
+     * and the port the lower 16.
+     *
+     * @param ipv4 the IPv4 address, packed into an int (most significant byte first)
+     * @param port the port, between 0 and 65535
+     * @return the packed address.
+     */
+    public static long packAddress(int ipv4, int port) {
+        return (ipv4 & 0xFFFFFFFFL) << 16 | (port & 0xFFFF);
+    }
+
+    /**
+     * Writes the "x.y.w.z:port" representation of a packed address (see {@link #packAddress(int, int)})
+     * as ASCII characters into a buffer.
+     *
+     * @param address the packed address
+     * @param dst the buffer, at least {@code MAX_ADDRESS_LENGTH} bytes long
+     * @return the number of bytes written.
+     */
+    public static int addressToBytes(long address, byte[] dst) {
+        int len = 0;
+        for (int shift = 40; shift >= 16; shift -= 8) {
+            len = writeDecimal((int) (address >>> shift) & 0xFF, dst, len);
+            dst[len++] = (byte) ((shift > 16) ? '.' : ':');
+        }
+        return writeDecimal((int) address & 0xFFFF, dst, len);
+    }
+
+    /**
+     * Writes the "x.y.w.z:port#k" representation of the k-th virtual node of a packed address (see
+     * {@link #packAddress(int, int)}) as ASCII characters into a buffer.
+     *
+     * @param address the packed address
+     * @param k the index of the virtual node, non-negative
+     * @param dst the buffer, at least {@code MAX_VIRTUAL_ADDRESS_LENGTH} bytes long
+     * @return the number of bytes written.
+     */
+    public static int virtualAddressToBytes(long address, int k, byte[] dst) {
+        int len = addressToBytes(address, dst);
+        dst[len++] = (byte) '#';
+        return writeDecimal(k, dst, len);
+    }
+
+    /**
+     * Gets the "x.y.w.z:port" representation of a packed address (see {@link #packAddress(int, int)}).
+     *
+     * @param address the packed address
+     * @return a String containing the representation of the address.
+     */
+    public static String addressToString(long address) {
+        byte[] buf = new byte[MAX_ADDRESS_LENGTH];
+        return new String(buf, 0, addressToBytes(address, buf), StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Writes the decimal representation of a non-negative integer as ASCII characters into a buffer.
+     *
+     * @param value the integer
+     * @param dst the buffer
+     * @param off the position of the first character
+     * @return the position following the last character.
+     */
+    private static int writeDecimal(int value, byte[] dst, int off) {
+        int digits = 1;
+        for (int v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        for (int i = off + digits - 1; i >= off; i--) {
+            dst[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return off + digits;
+    }
+
     /**
      * Checks whether a BigInteger is inside an interval, which can belong to a ring (and so
      * wrap around a wrapPoint).
      *
+     * This is the original, {@link BigInteger}-based version of the test; the routing code uses the
+     * allocation-free overloads working on limbs instead.
+     *
      * @param rightBounded a boolean to indicate whether the interval is right-closed
      * @param key the BigInteger to be checked against the interval
      * @param leftEndpoint the left endpoint of the interval
@@ -74,30 +220,152 @@ public class Util {
         }
     }
 
+    /**
+     * Checks whether a key is inside a left-open interval of a ring of at most 64 bits, which may wrap around zero.
+     *
+     * Instead of comparing the key against both endpoints and the wrap point, the test is expressed in terms of
+     * clockwise distances from the left endpoint: the key is in (left, right] if and only if
+     * {@code 0 < (key - left) mod 2^bits <= (right - left) mod 2^bits}, which takes two unsigned subtractions
+     * and a single unsigned comparison. The result is the same as the one given by
+     * {@link #isInInterval(boolean, BigInteger, BigInteger, BigInteger, BigInteger)}; in particular, an interval
+     * whose endpoints coincide is empty.
+     *
+     * @param rightBounded a boolean to indicate whether the interval is right-closed
+     * @param key the identifier to be checked against the interval
+     * @param leftEndpoint the left endpoint of the interval
+     * @param rightEndpoint the right endpoint of the interval
+     * @param mask the mask of the valid bits of the identifiers, i.e. 2^bits - 1 (see {@link IdSpace#getTopMask()})
+     * @return true if key is in the interval delimited by leftEndpoint and rightEndpoint
+     */
+    public static boolean isInInterval(boolean rightBounded, long key, long leftEndpoint, long rightEndpoint,
+                                       long mask) {
+        long keyDist = (key - leftEndpoint) & mask;
+        long rightDist = (rightEndpoint - leftEndpoint) & mask;
+        // keyDist - 1 turns a zero distance (i.e. key == leftEndpoint) into the highest unsigned value
+        return rightBounded
+                ? Long.compareUnsigned(keyDist - 1, rightDist) < 0
+                : Long.compareUnsigned(keyDist - 1, rightDist - 1) < 0 && rightDist != 0;
+    }
+
+    /**
+     * Checks whether a key is inside a left-open interval of a ring, which may wrap around zero.
+     *
+     * The identifiers are stored as limb arrays at the given offsets (see {@link IdSpace}). The test uses the
+     * same clockwise distance formulation of {@link #isInInterval(boolean, long, long, long, long)}; the two
+     * distances are computed limb by limb, from the least significant one, while keeping track of how they
+     * compare, so nothing has to be stored and no memory is allocated. Since the most significant limbs of
+     * three random identifiers are almost always pairwise distinct, and in that case they alone decide the
+     * outcome, the test usually only looks at them.
+     *
+     * @param rightBounded a boolean to indicate whether the interval is right-closed
+     * @param space the identifier space of the ring
+     * @param key the array holding the identifier to be checked against the interval
+     * @param keyOff the offset of the identifier in its array
+     * @param left the array holding the left endpoint of the interval
+     * @param leftOff the offset of the left endpoint in its array
+     * @param right the array holding the right endpoint of the interval
+     * @param rightOff the offset of the right endpoint in its array
+     * @return true if key is in the interval delimited by the two endpoints
+     */
+    public static boolean isInInterval(boolean rightBounded, IdSpace space,
+                                       long[] key, int keyOff,
+                                       long[] left, int leftOff,
+                                       long[] right, int rightOff) {
+        int limbs = space.getLimbs();
+        if (limbs == 1) {
+            return isInInterval(rightBounded, key[keyOff], left[leftOff], right[rightOff], space.getTopMask());
+        }
+        long topKey = key[keyOff], topLeft = left[leftOff], topRight = right[rightOff];
+        if (topKey != topLeft && topKey != topRight && topLeft != topRight) {
+            // When the most significant limbs are pairwise distinct they alone decide the cyclic order
+            return isInInterval(rightBounded, topKey, topLeft, topRight, space.getTopMask());
+        }
+        long keyBorrow = 0, rightBorrow = 0, nonZero = 0;
+        int cmp = 0;
+        for (int k = limbs - 1; k >= 0; k--) {
+            long l = left[leftOff + k], x = key[keyOff + k], y = right[rightOff + k];
+            long keyDist = x - l - keyBorrow, rightDist = y - l - rightBorrow;
+            keyBorrow = (Long.compareUnsigned(x, l) < 0 || (keyBorrow != 0 && x == l)) ? 1 : 0;
+            rightBorrow = (Long.compareUnsigned(y, l) < 0 || (rightBorrow != 0 && y == l)) ? 1 : 0;
+            if (k == 0) {
+                keyDist &= space.getTopMask();
+                rightDist &= space.getTopMask();
+            }
+            nonZero |= keyDist;
+            if (keyDist != rightDist) {
+                // More significant limbs are processed later and override the outcome
+                cmp = Long.compareUnsigned(keyDist, rightDist);
+            }
+        }
+        return nonZero != 0 && (rightBounded ? cmp <= 0 : cmp < 0);
+    }
+
     /**
      * Truncates a byte array to a set size.
      *
-     * The byte array gets first converted into a hex string, which is truncated and
-     * returned back as a byte array using the Apache Commons library.
+     * The result holds the {@code to_bits} most significant bits of the source (or the whole source, if it is
+     * not longer than {@code to_bits} bits) as an unsigned, big-endian number of {@code ceil(to_bits / 8)} bytes.
      *
      * @param source The byte array to be truncated
-     * @param to_bits The size (multiple of 4) to truncate
+     * @param to_bits The size (in bits) to truncate
      * @return The truncated byte array
      */
     public static byte[] truncate(byte[] source, int to_bits) {
-        String from = bytesToHex_NoTrim(source);
-        int nibbles = (int) Math.ceil((double) to_bits / 4);
-        if (nibbles >= from.length()) return source;
-        else {
-            try {
-                String s = from.substring(0, nibbles);
-                if (s.length() % 2 != 0) {
-                    s = "0" + s;
-                }
-                return Hex.decodeHex(s);
-            } catch (DecoderException e) {
-                throw new RuntimeException("Could not truncate");
+        if (to_bits >= source.length * 8) return source;
+        int shift = source.length * 8 - to_bits;
+        byte[] out = new byte[(to_bits + 7) >>> 3];
+        for (int i = 0; i < out.length; i++) {
+            out[out.length - 1 - i] = shiftedByte(source, shift, i);
+        }
+        if ((to_bits & 7) != 0) {
+            out[0] &= (byte) ((1 << (to_bits & 7)) - 1);
+        }
+        return out;
+    }
+
+    /**
+     * Truncates a byte array to the size of the identifiers of a ring and stores the result as an identifier.
+     *
+     * This is the same operation of {@link #truncate(byte[], int)}, but the result gets written straight into
+     * the limbs of an identifier (see {@link IdSpace}), without allocating any memory.
+     *
+     * @param source The byte array to be truncated (usually a digest)
+     * @param space The identifier space of the ring
+     * @param dst The array where the identifier is stored
+     * @param dstOff The offset of the identifier in its array
+     */
+    public static void truncate(byte[] source, IdSpace space, long[] dst, int dstOff) {
+        int limbs = space.getLimbs();
+        int shift = Math.max(source.length * 8 - space.getBits(), 0);
+        for (int k = 0; k < limbs; k++) {
+            long limb = 0;
+            int firstByte = (limbs - 1 - k) << 3;
+            for (int j = 7; j >= 0; j--) {
+                limb = (limb << 8) | (shiftedByte(source, shift, firstByte + j) & 0xFFL);
             }
+            dst[dstOff + k] = limb;
+        }
+        dst[dstOff] &= space.getTopMask();
+    }
+
+    /**
+     * Gets a byte of the number obtained by shifting an unsigned, big-endian byte array to the right.
+     *
+     * @param source The byte array holding the number
+     * @param shift The number of bits to shift
+     * @param index The index of the byte of the shifted number, starting from the least significant one
+     * @return the requested byte, or zero if it lies past the end of the shifted number
+     */
+    private static byte shiftedByte(byte[] source, int shift, int index) {
+        int bit = (index << 3) + shift;
+        int low = source.length - 1 - (bit >>> 3);
+        if (low < 0) {
+            return 0;
+        }
+        int value = (source[low] & 0xFF) >>> (bit & 7);
+        if ((bit & 7) != 0 && low > 0) {
+            value |= (source[low - 1] & 0xFF) << (8 - (bit & 7));
         }
+        return (byte) value;
     }
 }
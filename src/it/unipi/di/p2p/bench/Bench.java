@@ -0,0 +1,149 @@
+package it.unipi.di.p2p.bench;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+/**
+ * A minimal micro-benchmark harness, used by the benchmarks of this package.
+ *
+ * Each benchmark is run for a number of warmup rounds, whose results are discarded, and then for a number of
+ * measured rounds. For each round the harness records the elapsed time and the bytes allocated by the current
+ * thread (when the JVM supports allocation accounting), and reports the best time per operation, the
+ * average allocation per operation, the allocation rate and the number of collections (with their total time)
+ * that happened during the measured rounds, as reported by the {@link GarbageCollectorMXBean}s.
+ */
+public final class Bench {
+
+    /**
+     * A benchmarked operation.
+     */
+    public interface Op {
+        /**
+         * Runs the operation a number of times.
+         *
+         * @param iterations The number of times the operation must be run.
+         * @return a value depending on the results of the operation, to prevent dead code elimination.
+         */
+        long run(int iterations);
+    }
+
+    /**
+     * Number of warmup rounds.
+     */
+    private final int warmups;
+    /**
+     * Number of measured rounds.
+     */
+    private final int rounds;
+    /**
+     * Accumulates the values returned by the operations, so that the JIT cannot drop them.
+     */
+    private long sink = 0;
+
+    /**
+     * Constructor of the class.
+     *
+     * @param warmups Number of warmup rounds.
+     * @param rounds Number of measured rounds.
+     */
+    public Bench(int warmups, int rounds) {
+        this.warmups = warmups;
+        this.rounds = rounds;
+    }
+
+    /**
+     * Measures an operation and prints the results on the standard output.
+     *
+     * @param name The name of the benchmark.
+     * @param iterations The number of operations performed in each round.
+     * @param op The operation to be measured.
+     * @return the best time per operation, in nanoseconds.
+     */
+    public double measure(String name, int iterations, Op op) {
+        for (int i = 0; i < warmups; i++) {
+            sink += op.run(iterations);
+        }
+        long best = Long.MAX_VALUE, allocated = 0, total = 0;
+        long collections = gcCount(), gcMillis = gcTime();
+        for (int i = 0; i < rounds; i++) {
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            sink += op.run(iterations);
+            long elapsed = System.nanoTime() - start;
+            allocated += allocatedBytes() - bytes;
+            best = Math.min(best, elapsed);
+            total += elapsed;
+        }
+        collections = gcCount() - collections;
+        gcMillis = gcTime() - gcMillis;
+        double nsPerOp = (double) best / iterations;
+        double bytesPerOp = (double) allocated / ((long) rounds * iterations);
+        double mbPerSecond = (total > 0) ? allocated * 1e9 / total / (1 << 20) : 0;
+        System.out.println(String.format(Locale.ROOT, "%-56s %12.2f ns/op %12.2f B/op %10.1f MB/s %5d gc (%d ms)",
+                name, nsPerOp, bytesPerOp, mbPerSecond, collections, gcMillis));
+        return nsPerOp;
+    }
+
+    /**
+     * Returns the accumulated results of the measured operations.
+     * @return the accumulated results of the measured operations.
+     */
+    public long getSink() {
+        return sink;
+    }
+
+    /**
+     * Returns the number of bytes allocated so far by the current thread.
+     *
+     * @return the number of allocated bytes, or zero if the JVM does not support allocation accounting.
+     */
+    public static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the number of collections performed so far by all the garbage collectors.
+     *
+     * @return the number of collections, or zero if the JVM does not report it.
+     */
+    public static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(bean.getCollectionCount(), 0);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the time spent so far in collections by all the garbage collectors.
+     *
+     * @return the accumulated collection time in milliseconds, or zero if the JVM does not report it.
+     */
+    public static long gcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(bean.getCollectionTime(), 0);
+        }
+        return time;
+    }
+
+    /**
+     * Parses a comma-separated list of integers.
+     *
+     * @param list The list.
+     * @return the integers of the list.
+     */
+    public static int[] parseList(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+}
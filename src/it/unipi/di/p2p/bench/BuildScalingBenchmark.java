@@ -0,0 +1,71 @@
+package it.unipi.di.p2p.bench;
+
+import it.unipi.di.p2p.Coordinator;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+/**
+ * Measures how {@link Coordinator}{@code .buildOverlay} scales with the number of threads.
+ *
+ * The same overlay (same seed) is built with a parallelism of 1, 2, 4, ... up to the requested number of
+ * threads; the benchmark reports the best of a few builds for each level and checks that every build
+ * produces exactly the same topology as the sequential one.
+ *
+ * Usage: {@code BuildScalingBenchmark [bits] [nodes] [maxThreads]} (default: 32 65536 and the number of
+ * available processors).
+ */
+public class BuildScalingBenchmark {
+
+    /**
+     * Number of measured builds for each parallelism level.
+     */
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws NoSuchAlgorithmException {
+        int bits = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int nodes = args.length > 1 ? Integer.parseInt(args[1]) : 65536;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        long seed = 42;
+
+        PrintStream out = System.out;
+        String reference = null;
+        double sequential = 0;
+        for (int threads = 1; ; threads = Math.min(threads * 2, maxThreads)) {
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS + 1; round++) {
+                Coordinator c = new Coordinator(nodes, bits, seed);
+                c.setParallelism(threads);
+                // The sequential build logs every finger table
+                System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+                long start = System.nanoTime();
+                c.buildOverlay();
+                long elapsed = System.nanoTime() - start;
+                System.setOut(out);
+                if (round > 0) {
+                    // The first build is a warmup
+                    best = Math.min(best, elapsed);
+                }
+                if (round == 0) {
+                    String topology = c.getTopology();
+                    if (reference == null) {
+                        reference = topology;
+                    } else if (!reference.equals(topology)) {
+                        throw new AssertionError("The overlay built with " + threads + " threads differs");
+                    }
+                }
+            }
+            double ms = best / 1e6;
+            if (threads == 1) {
+                sequential = ms;
+            }
+            out.println(String.format(Locale.ROOT, "%d nodes, %d bits, %2d threads: %10.1f ms (speedup %.2fx)",
+                    nodes, bits, threads, ms, sequential / ms));
+            if (threads == maxThreads) {
+                break;
+            }
+        }
+    }
+}
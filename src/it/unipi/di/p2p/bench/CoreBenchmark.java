@@ -0,0 +1,194 @@
+package it.unipi.di.p2p.bench;
+
+import it.unipi.di.p2p.AggregateResults;
+import it.unipi.di.p2p.Coordinator;
+import it.unipi.di.p2p.FingerStore;
+import it.unipi.di.p2p.IdSpace;
+import it.unipi.di.p2p.LookupEngine;
+import it.unipi.di.p2p.LookupResult;
+import it.unipi.di.p2p.SortedRing;
+import it.unipi.di.p2p.Trace;
+import it.unipi.di.p2p.Util;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.SplittableRandom;
+
+/**
+ * The baseline benchmark of the core operations of the simulation, over a grid of identifier sizes and
+ * overlay sizes.
+ *
+ * For each identifier size the benchmark measures the operations that only depend on it: the interval test
+ * ({@link Util}{@code .isInInterval} on limbs), the truncation of a SHA-512 digest ({@link Util}{@code .truncate},
+ * both to a byte array and to limbs) and {@link Util}{@code .bytesToHex}. Then, for each overlay size, it builds
+ * an overlay and measures the construction of all the finger tables (a {@link SortedRing.FingerSweep} feeding a
+ * {@link FingerStore.Builder}, one operation per node), random lookups ({@link LookupEngine}{@code .lookup}) and
+ * the updates of the {@link AggregateResults}. Overlays with more nodes than half the identifier space are
+ * skipped.
+ *
+ * Every line reports the best time per operation, the average allocation per operation, the allocation rate
+ * and the collections that happened while measuring (see {@link Bench}).
+ *
+ * Usage: {@code CoreBenchmark [--bits=b1,b2,...] [--nodes=n1,n2,...]} (default: 8,32,64,160,512 bits and
+ * 1024,16384,262144,1048576 nodes).
+ */
+public class CoreBenchmark {
+
+    /**
+     * Number of random samples (triples, digests, keys or lookups) used by each benchmark round.
+     */
+    private static final int SAMPLES = 1 << 14;
+
+    public static void main(String[] args) throws NoSuchAlgorithmException {
+        int[] sizes = {8, 32, 64, 160, 512};
+        int[] overlays = {1024, 16384, 262144, 1048576};
+        for (String arg : args) {
+            if (arg.startsWith("--bits=")) {
+                sizes = Bench.parseList(arg.substring("--bits=".length()));
+            } else if (arg.startsWith("--nodes=")) {
+                overlays = Bench.parseList(arg.substring("--nodes=".length()));
+            } else {
+                System.err.println("Usage: CoreBenchmark [--bits=b1,b2,...] [--nodes=n1,n2,...]");
+                System.exit(1);
+            }
+        }
+        Trace.setLevel(Trace.Level.OFF);
+        Bench bench = new Bench(3, 5);
+        for (int bits : sizes) {
+            IdSpace space = new IdSpace(bits);
+            benchmarkUtil(bench, space);
+            for (int nodes : overlays) {
+                if (bits < 32 && nodes > 1L << (bits - 1)) {
+                    System.out.println(bits + "bit, " + nodes + " nodes: skipped (too many nodes for the identifier space)");
+                    continue;
+                }
+                benchmarkOverlay(bench, space, nodes);
+            }
+        }
+        System.out.println("(sink: " + bench.getSink() + ")");
+    }
+
+    /**
+     * Measures the operations of {@link Util} on identifiers of a given size.
+     *
+     * @param bench The harness.
+     * @param space The identifier space.
+     */
+    private static void benchmarkUtil(Bench bench, IdSpace space) {
+        int bits = space.getBits(), limbs = space.getLimbs();
+        SplittableRandom r = new SplittableRandom(42);
+        long[] ids = new long[3 * SAMPLES * limbs];
+        for (int i = 0; i < 3 * SAMPLES; i++) {
+            for (int k = 0; k < limbs; k++) {
+                ids[i * limbs + k] = r.nextLong();
+            }
+            ids[i * limbs] &= space.getTopMask();
+        }
+        byte[][] digests = new byte[SAMPLES][64];
+        byte[][] hex = new byte[SAMPLES][];
+        for (int i = 0; i < SAMPLES; i++) {
+            r.nextBytes(digests[i]);
+            hex[i] = space.toByteArray(ids, i * limbs);
+        }
+        long[] dst = new long[limbs];
+
+        bench.measure(bits + "bit isInInterval", SAMPLES, n -> {
+            long hits = 0;
+            for (int i = 0; i < n; i++) {
+                int off = 3 * i * limbs;
+                if (Util.isInInterval(true, space, ids, off, ids, off + limbs, ids, off + 2 * limbs))
+                    hits++;
+            }
+            return hits;
+        });
+        bench.measure(bits + "bit truncate to bytes", SAMPLES, n -> {
+            long sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += Util.truncate(digests[i], bits)[0];
+            }
+            return sum;
+        });
+        bench.measure(bits + "bit truncate to limbs", SAMPLES, n -> {
+            long sum = 0;
+            for (int i = 0; i < n; i++) {
+                Util.truncate(digests[i], space, dst, 0);
+                sum += dst[0];
+            }
+            return sum;
+        });
+        bench.measure(bits + "bit bytesToHex", SAMPLES, n -> {
+            long sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += Util.bytesToHex(hex[i]).length();
+            }
+            return sum;
+        });
+    }
+
+    /**
+     * Builds an overlay and measures the construction of its finger tables, lookups on it and the updates of
+     * the statistics of the simulation.
+     *
+     * @param bench The harness.
+     * @param space The identifier space.
+     * @param nodes The number of nodes of the overlay.
+     * @throws NoSuchAlgorithmException If the current JVM doesn't support SHA-512.
+     */
+    private static void benchmarkOverlay(Bench bench, IdSpace space, int nodes) throws NoSuchAlgorithmException {
+        int bits = space.getBits(), limbs = space.getLimbs();
+        String prefix = bits + "bit, " + nodes + " nodes, ";
+        Coordinator c = new Coordinator(nodes, bits, 42);
+        c.setParallelism(Runtime.getRuntime().availableProcessors());
+        c.buildOverlay();
+        SortedRing ring = c.getRing();
+        LookupEngine engine = c.getLookupEngine();
+
+        bench.measure(prefix + "finger tables", nodes, n -> {
+            FingerStore.Builder builder = new FingerStore.Builder(n, bits, 1);
+            SortedRing.FingerSweep sweep = ring.fingerSweep(0);
+            int[] fingers = new int[bits];
+            for (int i = 0; i < n; i++) {
+                sweep.next(fingers);
+                builder.add(0, i, fingers);
+            }
+            return builder.build().runs();
+        });
+
+        SplittableRandom r = new SplittableRandom(42);
+        long[] keys = new long[SAMPLES * limbs];
+        int[] starts = new int[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            for (int k = 0; k < limbs; k++) {
+                keys[i * limbs + k] = r.nextLong();
+            }
+            keys[i * limbs] &= space.getTopMask();
+            starts[i] = r.nextInt(nodes);
+        }
+        LookupResult lr = new LookupResult();
+        bench.measure(prefix + "lookup", SAMPLES, n -> {
+            long sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += engine.lookup(starts[i], keys, i * limbs, lr) + lr.getHops();
+            }
+            return sum;
+        });
+
+        LookupResult[] results = new LookupResult[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            results[i] = new LookupResult();
+            engine.lookup(starts[i], keys, i * limbs, results[i]);
+        }
+        AggregateResults ar = new AggregateResults(space, nodes);
+        bench.measure(prefix + "AggregateResults.addLookup", SAMPLES, n -> {
+            for (int i = 0; i < n; i++) {
+                ar.addLookup(results[i]);
+            }
+            return n;
+        });
+        bench.measure(prefix + "AggregateResults.addHopCounts", SAMPLES, n -> {
+            for (int i = 0; i < n; i++) {
+                ar.addHopCounts(results[i].getHops());
+            }
+            return n;
+        });
+    }
+}
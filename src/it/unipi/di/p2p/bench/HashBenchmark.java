@@ -0,0 +1,87 @@
+package it.unipi.di.p2p.bench;
+
+import it.unipi.di.p2p.BatchHasher;
+import it.unipi.di.p2p.HashAlgorithm;
+import it.unipi.di.p2p.IdSpace;
+import it.unipi.di.p2p.Util;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures the throughput of the hash algorithms used to generate identifiers.
+ *
+ * For each algorithm and identifier size (up to the size of the algorithm's digest) the benchmark hashes a
+ * batch of node addresses (in their "x.y.w.z:port" form) and a batch of search keys (random byte arrays as
+ * long as the number of bits, as generated by the simulation) into a flat array of identifiers, first in the
+ * current thread and then spread over a pool, and reports the time per identifier and the throughput in
+ * millions of identifiers per second.
+ *
+ * Usage: {@code HashBenchmark [threads] [bits...]} (default: the number of available processors, and
+ * 32 160 512).
+ */
+public class HashBenchmark {
+
+    /**
+     * Number of inputs of each batch.
+     */
+    private static final int BATCH = 1 << 16;
+
+    public static void main(String[] args) throws NoSuchAlgorithmException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int[] sizes = args.length <= 1 ? new int[]{32, 160, 512} : new int[args.length - 1];
+        for (int i = 1; i < args.length; i++) {
+            sizes[i - 1] = Integer.parseInt(args[i]);
+        }
+        Bench bench = new Bench(3, 5);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        SplittableRandom r = new SplittableRandom(42);
+        long[] addresses = new long[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            addresses[i] = Util.packAddress(r.nextInt(), r.nextInt(65536));
+        }
+
+        for (int bits : sizes) {
+            IdSpace space = new IdSpace(bits);
+            long[] ids = new long[BATCH * space.getLimbs()];
+            byte[] keys = new byte[BATCH * bits];
+            r.nextBytes(keys);
+            for (HashAlgorithm algorithm : HashAlgorithm.values()) {
+                if (bits > algorithm.getMaxBits()) {
+                    continue;
+                }
+                BatchHasher hasher = new BatchHasher(algorithm.newHasher(space), Math.max(bits, Util.MAX_ADDRESS_LENGTH));
+                String prefix = bits + "bit " + algorithm;
+                report(bench.measure(prefix + " addresses", BATCH, n -> {
+                    hasher.hash(0, n, (i, buffer) -> Util.addressToBytes(addresses[i], buffer), ids, null);
+                    return ids[0];
+                }));
+                report(bench.measure(prefix + " addresses, " + threads + " threads", BATCH, n -> {
+                    hasher.hash(0, n, (i, buffer) -> Util.addressToBytes(addresses[i], buffer), ids, pool);
+                    return ids[0];
+                }));
+                report(bench.measure(prefix + " search keys", BATCH, n -> {
+                    hasher.hash(keys, bits, n, ids, null);
+                    return ids[0];
+                }));
+                report(bench.measure(prefix + " search keys, " + threads + " threads", BATCH, n -> {
+                    hasher.hash(keys, bits, n, ids, pool);
+                    return ids[0];
+                }));
+            }
+        }
+        pool.shutdown();
+        System.out.println("(sink: " + bench.getSink() + ")");
+    }
+
+    /**
+     * Prints the throughput corresponding to a time per identifier.
+     *
+     * @param nsPerOp The time per identifier, in nanoseconds.
+     */
+    private static void report(double nsPerOp) {
+        System.out.println(String.format(Locale.ROOT, "%56s %12.2f M ids/s", "", 1000.0 / nsPerOp));
+    }
+}
@@ -0,0 +1,113 @@
+package it.unipi.di.p2p.bench;
+
+import it.unipi.di.p2p.IdSpace;
+import it.unipi.di.p2p.Util;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * Compares the {@link BigInteger}-based {@link Util}{@code .isInInterval} with the limb-based,
+ * clockwise-distance one.
+ *
+ * Before measuring, the benchmark checks that the two versions agree on random intervals and on all the
+ * corner cases (wrapping intervals, coinciding endpoints, keys equal to an endpoint, zero and 2^bits - 1)
+ * for both open and half-open intervals; it aborts if they do not.
+ *
+ * Usage: {@code IntervalBenchmark [bits...]} (default: 8 32 64 160 512).
+ */
+public class IntervalBenchmark {
+
+    /**
+     * Number of random triples used by each benchmark round.
+     */
+    private static final int SAMPLES = 1 << 12;
+
+    public static void main(String[] args) {
+        int[] sizes = args.length == 0 ? new int[]{8, 32, 64, 160, 512} : new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+        Bench bench = new Bench(5, 10);
+        for (int bits : sizes) {
+            IdSpace space = new IdSpace(bits);
+            checkEquivalence(space, new Random(bits));
+
+            Random r = new Random(42);
+            int limbs = space.getLimbs();
+            BigInteger[] big = new BigInteger[3 * SAMPLES];
+            long[] ids = new long[3 * SAMPLES * limbs];
+            for (int i = 0; i < big.length; i++) {
+                big[i] = new BigInteger(bits, r);
+                space.fromBigInteger(big[i], ids, i * limbs);
+            }
+            BigInteger wrapPoint = space.getWrapPoint();
+
+            bench.measure(bits + "bit BigInteger, wrapPoint rebuilt per call", SAMPLES, n -> {
+                long hits = 0;
+                for (int i = 0; i < n; i++) {
+                    if (Util.isInInterval(true, big[3 * i], big[3 * i + 1], big[3 * i + 2], BigInteger.TWO.pow(bits)))
+                        hits++;
+                }
+                return hits;
+            });
+            bench.measure(bits + "bit BigInteger, precomputed wrapPoint", SAMPLES, n -> {
+                long hits = 0;
+                for (int i = 0; i < n; i++) {
+                    if (Util.isInInterval(true, big[3 * i], big[3 * i + 1], big[3 * i + 2], wrapPoint))
+                        hits++;
+                }
+                return hits;
+            });
+            bench.measure(bits + "bit limbs, clockwise distance", SAMPLES, n -> {
+                long hits = 0;
+                for (int i = 0; i < n; i++) {
+                    int off = 3 * i * limbs;
+                    if (Util.isInInterval(true, space, ids, off, ids, off + limbs, ids, off + 2 * limbs))
+                        hits++;
+                }
+                return hits;
+            });
+        }
+        System.out.println("(sink: " + bench.getSink() + ")");
+    }
+
+    /**
+     * Checks that the two versions of the interval test agree, throwing an {@link AssertionError} otherwise.
+     *
+     * @param space The identifier space to be checked.
+     * @param r The random number generator used to build the samples.
+     */
+    static void checkEquivalence(IdSpace space, Random r) {
+        int bits = space.getBits(), limbs = space.getLimbs();
+        BigInteger wrapPoint = space.getWrapPoint(), max = wrapPoint.subtract(BigInteger.ONE);
+        BigInteger[] special = {BigInteger.ZERO, BigInteger.ONE, max, max.shiftRight(1), max.shiftRight(1).add(BigInteger.ONE)};
+        long[] buf = new long[3 * limbs];
+        for (int t = 0; t < 200000; t++) {
+            BigInteger[] v = new BigInteger[3];
+            for (int j = 0; j < 3; j++) {
+                int choice = r.nextInt(8);
+                v[j] = choice < special.length ? special[choice].mod(wrapPoint) : new BigInteger(bits, r);
+            }
+            // Force coinciding values, so that degenerate intervals and keys on the endpoints are covered
+            switch (t % 5) {
+                case 1: v[1] = v[2]; break;
+                case 2: v[0] = v[1]; break;
+                case 3: v[0] = v[2]; break;
+                case 4: v[0] = v[1]; v[2] = v[1]; break;
+                default: break;
+            }
+            for (int j = 0; j < 3; j++) {
+                space.fromBigInteger(v[j], buf, j * limbs);
+            }
+            for (boolean rightBounded : new boolean[]{true, false}) {
+                boolean expected = Util.isInInterval(rightBounded, v[0], v[1], v[2], wrapPoint);
+                boolean actual = Util.isInInterval(rightBounded, space, buf, 0, buf, limbs, buf, 2 * limbs);
+                if (expected != actual) {
+                    throw new AssertionError("Mismatch for " + bits + " bits: key " + v[0] + ", interval ("
+                            + v[1] + ", " + v[2] + (rightBounded ? "]" : ")"));
+                }
+            }
+        }
+    }
+}
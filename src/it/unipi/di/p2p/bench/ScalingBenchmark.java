@@ -0,0 +1,369 @@
+package it.unipi.di.p2p.bench;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import it.unipi.di.p2p.Coordinator;
+import it.unipi.di.p2p.HashAlgorithm;
+import it.unipi.di.p2p.Trace;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.NoSuchAlgorithmException;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Runs whole simulations ({@link Coordinator}{@code .buildOverlay} followed by
+ * {@link Coordinator}{@code .simulateRouting}) over a grid of node counts, identifier sizes and query
+ * multipliers (the number of queries of a simulation being the number of nodes times the multiplier), and
+ * writes the measurements of every phase to a single JSON file.
+ *
+ * For each phase the runner records the wall time, the peak heap usage (the sum of the peaks of the heap
+ * memory pools, which may have been reached at different times), the bytes allocated by all the threads
+ * (the growth of the used heap plus what the collections reclaimed in the meantime) and the collections,
+ * with their total and longest duration, as reported by the garbage collectors' notifications. Every run
+ * starts from a collected heap, and uses the same seed.
+ *
+ * Usage: {@code ScalingBenchmark [--nodes=n1,n2,...] [--bits=b1,b2,...] [--queries=m1,m2,...] [--threads=N]
+ * [--seed=N] [--hash=name] [--output=file]} (default: 1024 to 65536 nodes, doubling, 160 bits, one query
+ * per node, the number of available processors, seed 42, SHA-512 and {@code scaling.json}).
+ */
+public class ScalingBenchmark {
+
+    /**
+     * The description of the grid and of the environment, followed by the results of its runs; this is
+     * what gets written to the results file.
+     */
+    private static final class Results {
+        /**
+         * When the grid was run.
+         */
+        String date = OffsetDateTime.now().toString();
+        /**
+         * The version of the JVM.
+         */
+        String javaVersion = System.getProperty("java.version");
+        /**
+         * The number of processors available to the JVM.
+         */
+        int processors = Runtime.getRuntime().availableProcessors();
+        /**
+         * The maximum size of the heap, in bytes.
+         */
+        long maxHeapBytes = Runtime.getRuntime().maxMemory();
+        /**
+         * The parallelism of the runs.
+         */
+        int threads;
+        /**
+         * The seed of the runs.
+         */
+        long seed;
+        /**
+         * The hash algorithm of the runs.
+         */
+        String hashAlgorithm;
+        /**
+         * The results of the runs, one for each point of the grid.
+         */
+        List<Run> runs = new ArrayList<>();
+    }
+
+    /**
+     * The results of a single run.
+     */
+    private static final class Run {
+        /**
+         * Number of nodes.
+         */
+        int nodes;
+        /**
+         * Number of bits of the identifiers.
+         */
+        int bits;
+        /**
+         * Number of queries performed by each node.
+         */
+        int queryMultiplier;
+        /**
+         * Number of queries.
+         */
+        long queries;
+        /**
+         * The measurements of each phase, in order.
+         */
+        List<Phase> phases = new ArrayList<>();
+    }
+
+    /**
+     * The measurements of a phase of a run.
+     */
+    private static final class Phase {
+        /**
+         * The name of the phase.
+         */
+        String name;
+        /**
+         * Wall time, in milliseconds.
+         */
+        double wallMillis;
+        /**
+         * Peak heap usage, in bytes.
+         */
+        long peakHeapBytes;
+        /**
+         * Bytes allocated by all the threads.
+         */
+        long allocatedBytes;
+        /**
+         * Number of collections.
+         */
+        long gcCount;
+        /**
+         * Total duration of the collections, in milliseconds.
+         */
+        long gcMillis;
+        /**
+         * Duration of the longest collection, in milliseconds.
+         */
+        long maxGcMillis;
+    }
+
+    /**
+     * A phase of a run.
+     */
+    @FunctionalInterface
+    private interface Task {
+        /**
+         * Runs the phase.
+         *
+         * @throws NoSuchAlgorithmException If the current JVM doesn't support the hash algorithm.
+         */
+        void run() throws NoSuchAlgorithmException;
+    }
+
+    /**
+     * Collects the notifications of the garbage collectors.
+     */
+    private static final class GcListener implements NotificationListener {
+        /**
+         * The names of the heap memory pools.
+         */
+        private final Set<String> heapPools = new HashSet<>();
+        /**
+         * Number of collections notified so far, including those that happened before the listener was
+         * registered.
+         */
+        private long count = Bench.gcCount();
+        /**
+         * Total duration of the collections notified so far, in milliseconds.
+         */
+        private long millis;
+        /**
+         * Duration of the longest collection notified since the last reset, in milliseconds.
+         */
+        private long maxMillis;
+        /**
+         * Heap bytes reclaimed by the collections notified so far.
+         */
+        private long reclaimed;
+
+        /**
+         * Registers the listener with all the garbage collectors.
+         */
+        GcListener() {
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    heapPools.add(pool.getName());
+                }
+            }
+            for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+                if (bean instanceof NotificationEmitter) {
+                    ((NotificationEmitter) bean).addNotificationListener(this, null, null);
+                }
+            }
+        }
+
+        @Override
+        public synchronized void handleNotification(Notification notification, Object handback) {
+            if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                return;
+            }
+            GarbageCollectionNotificationInfo info =
+                    GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            long duration = info.getGcInfo().getDuration();
+            count++;
+            millis += duration;
+            maxMillis = Math.max(maxMillis, duration);
+            Map<String, MemoryUsage> before = info.getGcInfo().getMemoryUsageBeforeGc();
+            Map<String, MemoryUsage> after = info.getGcInfo().getMemoryUsageAfterGc();
+            for (String pool : heapPools) {
+                if (before.containsKey(pool) && after.containsKey(pool)) {
+                    reclaimed += before.get(pool).getUsed() - after.get(pool).getUsed();
+                }
+            }
+            notifyAll();
+        }
+
+        /**
+         * Waits until a given number of collections has been notified (the notifications are delivered
+         * asynchronously), for at most one second.
+         *
+         * @param expected The number of collections.
+         */
+        synchronized void await(long expected) {
+            long deadline = System.currentTimeMillis() + 1000;
+            try {
+                long left;
+                while (count < expected && (left = deadline - System.currentTimeMillis()) > 0) {
+                    wait(left);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws NoSuchAlgorithmException, IOException {
+        int[] nodeCounts = {1024, 2048, 4096, 8192, 16384, 32768, 65536};
+        int[] sizes = {160};
+        int[] multipliers = {1};
+        Results results = new Results();
+        results.threads = Runtime.getRuntime().availableProcessors();
+        results.seed = 42;
+        HashAlgorithm hash = HashAlgorithm.SHA512;
+        String output = "scaling.json";
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--nodes=")) {
+                nodeCounts = Bench.parseList(value);
+            } else if (arg.startsWith("--bits=")) {
+                sizes = Bench.parseList(value);
+            } else if (arg.startsWith("--queries=")) {
+                multipliers = Bench.parseList(value);
+            } else if (arg.startsWith("--threads=")) {
+                results.threads = Integer.parseInt(value);
+            } else if (arg.startsWith("--seed=")) {
+                results.seed = Long.parseLong(value);
+            } else if (arg.startsWith("--hash=")) {
+                hash = HashAlgorithm.fromName(value);
+            } else if (arg.startsWith("--output=")) {
+                output = value;
+            } else {
+                System.err.println("Usage: ScalingBenchmark [--nodes=n1,n2,...] [--bits=b1,b2,...] "
+                        + "[--queries=m1,m2,...] [--threads=N] [--seed=N] [--hash=name] [--output=file]");
+                System.exit(1);
+            }
+        }
+        results.hashAlgorithm = hash.name();
+        Trace.setLevel(Trace.Level.OFF);
+        GcListener listener = new GcListener();
+
+        for (int bits : sizes) {
+            for (int nodes : nodeCounts) {
+                if (bits < 31 && nodes > 1 << bits) {
+                    System.out.println(bits + "bit, " + nodes + " nodes: skipped (too many nodes for the identifier space)");
+                    continue;
+                }
+                for (int multiplier : multipliers) {
+                    Run run = new Run();
+                    run.nodes = nodes;
+                    run.bits = bits;
+                    run.queryMultiplier = multiplier;
+                    run.queries = (long) nodes * multiplier;
+                    if (run.queries > Integer.MAX_VALUE) {
+                        System.out.println(bits + "bit, " + nodes + " nodes, " + multiplier
+                                + " queries per node: skipped (too many queries)");
+                        continue;
+                    }
+                    System.gc();
+                    Coordinator c = new Coordinator(nodes, bits, results.seed);
+                    c.setHashAlgorithm(hash);
+                    c.setParallelism(results.threads);
+                    run.phases.add(measure("build", listener, c::buildOverlay));
+                    run.phases.add(measure("simulation", listener, () -> c.simulateRouting((int) run.queries)));
+                    results.runs.add(run);
+                    for (Phase p : run.phases) {
+                        System.out.println(String.format(Locale.ROOT,
+                                "%4dbit %8d nodes %3dx %-10s %10.1f ms %8d MB peak %8d MB alloc %4d gc (%d ms, max %d ms)",
+                                bits, nodes, multiplier, p.name, p.wallMillis, p.peakHeapBytes >> 20,
+                                p.allocatedBytes >> 20, p.gcCount, p.gcMillis, p.maxGcMillis));
+                    }
+                }
+            }
+        }
+
+        Gson g = new GsonBuilder().setPrettyPrinting().create();
+        try (Writer w = Files.newBufferedWriter(Paths.get(output), StandardCharsets.UTF_8)) {
+            g.toJson(results, w);
+        }
+        System.out.println("Results written to " + output);
+    }
+
+    /**
+     * Runs a phase and measures it.
+     *
+     * @param name The name of the phase.
+     * @param listener The listener collecting the notifications of the garbage collectors.
+     * @param task The phase.
+     * @return the measurements of the phase.
+     * @throws NoSuchAlgorithmException If the current JVM doesn't support the hash algorithm.
+     */
+    private static Phase measure(String name, GcListener listener, Task task) throws NoSuchAlgorithmException {
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                pools.add(pool);
+            }
+        }
+        long collections = Bench.gcCount();
+        long count, millis, reclaimed;
+        synchronized (listener) {
+            listener.await(collections);
+            count = listener.count;
+            millis = listener.millis;
+            reclaimed = listener.reclaimed;
+            listener.maxMillis = 0;
+        }
+        long used = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+
+        long start = System.nanoTime();
+        task.run();
+        long elapsed = System.nanoTime() - start;
+
+        long usedAfter = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        Phase p = new Phase();
+        p.name = name;
+        p.wallMillis = elapsed / 1e6;
+        for (MemoryPoolMXBean pool : pools) {
+            p.peakHeapBytes += pool.getPeakUsage().getUsed();
+        }
+        synchronized (listener) {
+            listener.await(Bench.gcCount());
+            p.gcCount = listener.count - count;
+            p.gcMillis = listener.millis - millis;
+            p.maxGcMillis = listener.maxMillis;
+            p.allocatedBytes = usedAfter - used + listener.reclaimed - reclaimed;
+        }
+        return p;
+    }
+}
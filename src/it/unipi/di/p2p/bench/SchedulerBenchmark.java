@@ -0,0 +1,65 @@
+package it.unipi.di.p2p.bench;
+
+import it.unipi.di.p2p.Coordinator;
+import it.unipi.di.p2p.EventScheduler;
+import it.unipi.di.p2p.LatencyModel;
+import it.unipi.di.p2p.MessageSimulation;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * Measures the throughput of the {@link EventScheduler}, and of a whole {@link MessageSimulation}.
+ *
+ * The scheduler is measured with the classic "hold" model: the queue is filled with a number of pending
+ * events, and then each operation removes the earliest event and schedules a new one at a random time after
+ * it, so that the queue keeps its size. The message-level simulation is run on an overlay with a realistic
+ * load, and its throughput is reported in events per second.
+ *
+ * Usage: {@code SchedulerBenchmark [nodes] [queries]} (default: 100000 and 1000000).
+ */
+public class SchedulerBenchmark {
+
+    /**
+     * Number of hold operations of each benchmark round.
+     */
+    private static final int OPERATIONS = 1 << 20;
+
+    public static void main(String[] args) throws NoSuchAlgorithmException {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        Bench bench = new Bench(3, 5);
+        for (int pending : new int[]{1 << 10, 1 << 17, 1 << 20}) {
+            EventScheduler scheduler = new EventScheduler(pending);
+            SplittableRandom r = new SplittableRandom(42);
+            for (int i = 0; i < pending; i++) {
+                scheduler.schedule(r.nextLong(1000000), 0, i, 0);
+            }
+            double ns = bench.measure("hold, " + pending + " pending events", OPERATIONS, n -> {
+                long sum = 0;
+                for (int i = 0; i < n; i++) {
+                    scheduler.poll();
+                    sum += scheduler.getNode();
+                    scheduler.schedule(scheduler.getTime() + r.nextLong(1000000), 0, i, 0);
+                }
+                return sum;
+            });
+            System.out.println(String.format(Locale.ROOT, "%56s %12.2f M events/s", "", 1000.0 / ns));
+        }
+
+        Coordinator c = new Coordinator(nodes, 160, 42);
+        c.setParallelism(Runtime.getRuntime().availableProcessors());
+        c.buildOverlay();
+        MessageSimulation simulation = new MessageSimulation(c.getRing(), c.getFingerStore(),
+                LatencyModel.perLink(10000, 100000, 42), 100);
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            simulation.run(queries, 20000, new SplittableRandom(42));
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.println(String.format(Locale.ROOT, "%d nodes, %d queries: %d events in %.2f s, %.2f M events/s",
+                    nodes, queries, simulation.getEvents(), seconds, simulation.getEvents() / seconds / 1e6));
+        }
+        System.out.println("(sink: " + bench.getSink() + ")");
+    }
+}
@@ -0,0 +1,71 @@
+package it.unipi.di.p2p.bench;
+
+import it.unipi.di.p2p.Coordinator;
+import it.unipi.di.p2p.StabilizationSimulation;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * Measures the trade-off of Chord's maintenance protocol between its cost and the correctness of the lookups,
+ * running a {@link StabilizationSimulation} for each of a list of stabilization intervals on the same overlay
+ * and with the same joins and lookups. For each interval it prints the maintenance messages sent per node per
+ * second, the fraction of correct lookups, and the fraction of nodes with the right successor and of right
+ * fingers at the end of the run, along with the simulation's throughput.
+ *
+ * Usage: {@code StabilizationBenchmark [--nodes=N] [--bits=N] [--intervals=ms1,ms2,...] [--joins=N]
+ * [--lookups=N] [--duration=S] [--seed=N]} (default: 10000 nodes, half of them joining at 20 nodes per
+ * second, 160 bits, intervals from 125 ms to 8 s, 200 lookups per second, 120 seconds and seed 42).
+ */
+public class StabilizationBenchmark {
+
+    public static void main(String[] args) throws NoSuchAlgorithmException {
+        int nodes = 10000, bits = 160;
+        int[] intervals = {125, 250, 500, 1000, 2000, 4000, 8000};
+        double joins = 20, lookups = 200, duration = 120;
+        long seed = 42;
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--nodes=")) {
+                nodes = Integer.parseInt(value);
+            } else if (arg.startsWith("--bits=")) {
+                bits = Integer.parseInt(value);
+            } else if (arg.startsWith("--intervals=")) {
+                intervals = Bench.parseList(value);
+            } else if (arg.startsWith("--joins=")) {
+                joins = Double.parseDouble(value);
+            } else if (arg.startsWith("--lookups=")) {
+                lookups = Double.parseDouble(value);
+            } else if (arg.startsWith("--duration=")) {
+                duration = Double.parseDouble(value);
+            } else if (arg.startsWith("--seed=")) {
+                seed = Long.parseLong(value);
+            } else {
+                System.err.println("Usage: StabilizationBenchmark [--nodes=N] [--bits=N] [--intervals=ms1,ms2,...] "
+                        + "[--joins=N] [--lookups=N] [--duration=S] [--seed=N]");
+                System.exit(1);
+            }
+        }
+
+        Coordinator c = new Coordinator(nodes, bits, seed);
+        c.setParallelism(Runtime.getRuntime().availableProcessors());
+        c.buildOverlay();
+        System.out.println(String.format(Locale.ROOT, "%d nodes, %d bits, %d initial, %.1f joins/s, %.1f lookups/s, %.0f s",
+                nodes, bits, nodes / 2, joins, lookups, duration));
+        System.out.println(String.format(Locale.ROOT, "%12s %16s %12s %12s %12s %14s",
+                "interval_ms", "msgs/node/s", "correct", "successors", "fingers", "M events/s"));
+        for (int interval : intervals) {
+            StabilizationSimulation simulation = new StabilizationSimulation(c.getRing(), interval * 1000L);
+            long start = System.nanoTime();
+            simulation.run(Math.max(1, nodes / 2), joins, lookups, Math.round(duration * 1e6),
+                    new SplittableRandom(seed));
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.println(String.format(Locale.ROOT, "%12d %16.3f %12.4f %12.4f %12.4f %14.2f",
+                    interval, simulation.getMessageRate(), simulation.getCorrectness(),
+                    ((double) simulation.countCorrectSuccessors()) / simulation.getNodes(),
+                    ((double) simulation.countCorrectFingers()) / simulation.getNodes() / bits,
+                    simulation.getEvents() / seconds / 1e6));
+        }
+    }
+}
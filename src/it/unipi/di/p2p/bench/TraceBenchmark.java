@@ -0,0 +1,85 @@
+package it.unipi.di.p2p.bench;
+
+import it.unipi.di.p2p.Coordinator;
+import it.unipi.di.p2p.Trace;
+
+import java.io.*;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+/**
+ * Measures how much the diagnostic output costs in a whole run ({@link Coordinator}{@code .buildOverlay}
+ * followed by a simulation of one query per node).
+ *
+ * The same run (same seed) is timed with tracing off, with the per-node and per-query output of the
+ * {@link Trace.Level#TRACE} level written to a file, as the original code did on the standard output, and
+ * written to a stream that discards it, which isolates the cost of building the messages from the cost of
+ * the I/O. The best of a few runs is reported for each configuration.
+ *
+ * Usage: {@code TraceBenchmark [bits] [nodes]} (default: 160 65536).
+ */
+public class TraceBenchmark {
+
+    /**
+     * Number of measured runs for each configuration.
+     */
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws NoSuchAlgorithmException, IOException {
+        int bits = args.length > 0 ? Integer.parseInt(args[0]) : 160;
+        int nodes = args.length > 1 ? Integer.parseInt(args[1]) : 65536;
+
+        File file = File.createTempFile("trace", ".log");
+        file.deleteOnExit();
+        String[] names = {"tracing off", "trace, output discarded", "trace, output to file"};
+        double[] best = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+        // The configurations are interleaved, so that they all run with the same JIT and heap state;
+        // the first round is a warmup
+        for (int round = 0; round <= ROUNDS; round++) {
+            for (int config = 0; config < names.length; config++) {
+                double elapsed;
+                if (config == 0) {
+                    elapsed = run(bits, nodes, Trace.Level.OFF, System.out);
+                } else if (config == 1) {
+                    elapsed = run(bits, nodes, Trace.Level.TRACE, new PrintStream(OutputStream.nullOutputStream()));
+                } else {
+                    try (PrintStream ps = new PrintStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+                        elapsed = run(bits, nodes, Trace.Level.TRACE, ps);
+                    }
+                }
+                if (round > 0) {
+                    best[config] = Math.min(best[config], elapsed);
+                }
+            }
+        }
+        Trace.setLevel(Trace.Level.OFF);
+        Trace.setOutput(System.out);
+
+        System.out.println(String.format(Locale.ROOT, "%d nodes, %d bits (trace: %d MB)", nodes, bits,
+                file.length() >> 20));
+        for (int config = 0; config < names.length; config++) {
+            System.out.println(String.format(Locale.ROOT, "%-32s %10.1f ms", names[config], best[config]));
+        }
+    }
+
+    /**
+     * Times a whole run with a given tracing configuration.
+     *
+     * @param bits Number of bits of the identifiers.
+     * @param nodes Number of nodes.
+     * @param level The tracing level.
+     * @param out The stream the trace is written to.
+     * @return the time of the run, in milliseconds.
+     * @throws NoSuchAlgorithmException If the current JVM doesn't support SHA-512.
+     */
+    private static double run(int bits, int nodes, Trace.Level level, PrintStream out) throws NoSuchAlgorithmException {
+        Trace.setLevel(level);
+        Trace.setOutput(out);
+        long start = System.nanoTime();
+        Coordinator c = new Coordinator(nodes, bits, 42);
+        c.buildOverlay();
+        c.simulateRouting(nodes);
+        out.flush();
+        return (System.nanoTime() - start) / 1e6;
+    }
+}
@@ -0,0 +1,112 @@
+package it.unipi.di.p2p.bench;
+
+import it.unipi.di.p2p.IdSpace;
+import it.unipi.di.p2p.Util;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+/**
+ * Compares the old, hex-string based truncation of digests with the bit-shifting one, on the inputs used
+ * by the Coordinator: "IPaddress:port" strings (node identifiers, built in {@code buildOverlay}) and random
+ * byte arrays of {@code idSpaceBits} bytes (search keys, built in {@code simulateRouting}).
+ *
+ * Each variant measures the whole path from the input to the identifier, SHA-512 digest included, and the
+ * benchmark also checks that the two truncations give the same identifiers for sizes divisible by 4 (the
+ * only ones the old method supported).
+ *
+ * Usage: {@code TruncateBenchmark [bits...]} (default: 8 32 64 160 512).
+ */
+public class TruncateBenchmark {
+
+    /**
+     * Number of inputs used by each benchmark round.
+     */
+    private static final int SAMPLES = 1 << 12;
+
+    public static void main(String[] args) throws NoSuchAlgorithmException {
+        int[] sizes = args.length == 0 ? new int[]{8, 32, 64, 160, 512} : new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+        MessageDigest sha512 = MessageDigest.getInstance("SHA-512");
+        Bench bench = new Bench(5, 10);
+        Random r = new Random(42);
+
+        byte[][] names = new byte[SAMPLES][];
+        for (int i = 0; i < SAMPLES; i++) {
+            names[i] = (r.nextInt(256) + "." + r.nextInt(256) + "." + r.nextInt(256) + "." + r.nextInt(256)
+                    + ":" + r.nextInt(65536)).getBytes();
+        }
+
+        for (int bits : sizes) {
+            IdSpace space = new IdSpace(bits);
+            long[] ids = new long[space.getLimbs()];
+            byte[][] keys = new byte[SAMPLES][bits];
+            for (byte[] key : keys) {
+                r.nextBytes(key);
+            }
+
+            if (bits % 4 == 0) {
+                for (byte[] key : keys) {
+                    byte[] digest = sha512.digest(key);
+                    Util.truncate(digest, space, ids, 0);
+                    if (!new BigInteger(1, legacyTruncate(digest, bits)).equals(space.toBigInteger(ids, 0))
+                            || !new BigInteger(1, legacyTruncate(digest, bits)).equals(new BigInteger(1, Util.truncate(digest, bits)))) {
+                        throw new AssertionError("Truncations differ for " + bits + " bits");
+                    }
+                }
+            }
+
+            for (int path = 0; path < 2; path++) {
+                byte[][] inputs = (path == 0) ? names : keys;
+                String label = bits + "bit " + ((path == 0) ? "buildOverlay" : "simulateRouting");
+                bench.measure(label + ", hex string truncation", SAMPLES, n -> {
+                    long acc = 0;
+                    for (int i = 0; i < n; i++) {
+                        acc += new BigInteger(1, legacyTruncate(sha512.digest(inputs[i]), bits)).intValue();
+                    }
+                    return acc;
+                });
+                bench.measure(label + ", bit-shift truncation", SAMPLES, n -> {
+                    long acc = 0;
+                    for (int i = 0; i < n; i++) {
+                        Util.truncate(sha512.digest(inputs[i]), space, ids, 0);
+                        acc += ids[ids.length - 1];
+                    }
+                    return acc;
+                });
+            }
+        }
+        System.out.println("(sink: " + bench.getSink() + ")");
+    }
+
+    /**
+     * The original truncation: the digest gets converted into a hex string, which is truncated and
+     * decoded back into a byte array.
+     *
+     * @param source The byte array to be truncated
+     * @param to_bits The size (multiple of 4) to truncate
+     * @return The truncated byte array
+     */
+    static byte[] legacyTruncate(byte[] source, int to_bits) {
+        String from = Util.bytesToHex_NoTrim(source);
+        int nibbles = (int) Math.ceil((double) to_bits / 4);
+        if (nibbles >= from.length()) return source;
+        else {
+            try {
+                String s = from.substring(0, nibbles);
+                if (s.length() % 2 != 0) {
+                    s = "0" + s;
+                }
+                return Hex.decodeHex(s);
+            } catch (DecoderException e) {
+                throw new RuntimeException("Could not truncate");
+            }
+        }
+    }
+}